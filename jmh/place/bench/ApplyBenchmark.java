@@ -0,0 +1,117 @@
+package place.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import place.PlaceColor;
+import place.PlaceException;
+import place.PlaceTile;
+import place.server.PlaceServer;
+import place.server.PlaceServerConfig;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how fast tile changes are applied as more threads make them,
+ * with each way the server can apply them.  An in-process server with no
+ * clients is given changes to random tiles by one thread, then two, four
+ * and eight; how far the changes a second grow from one thread is how
+ * well applying them scales.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ApplyBenchmark {
+    /** The board dimension */
+    private final static int DIM = 1024;
+    /** The colors, looked up once */
+    private final static PlaceColor[] COLORS = PlaceColor.values();
+
+    /** How the server applies changes: locks or pipeline */
+    @Param({ "locks", "pipeline" })
+    public String apply;
+
+    /** The server */
+    private PlaceServer server;
+    /** The id the changes are made as */
+    private int owner;
+
+    /**
+     * Start a server that applies changes the way being measured.
+     *
+     * @throws PlaceException if the server can't start
+     */
+    @Setup
+    public void setUp() throws PlaceException {
+        this.server = PlaceServer.start(PlaceServerConfig.parse(
+                new String[]{ "0", String.valueOf(DIM), "--apply=" + this.apply }));
+        this.owner = this.server.getBoard().getOwners().intern("bench");
+    }
+
+    /**
+     * Stop the server.
+     */
+    @TearDown
+    public void tearDown() {
+        this.server.close();
+    }
+
+    /**
+     * Change a random tile on one thread.
+     */
+    @Benchmark
+    @Threads(1)
+    public void oneThread() {
+        change();
+    }
+
+    /**
+     * Change a random tile on each of two threads.
+     */
+    @Benchmark
+    @Threads(2)
+    public void twoThreads() {
+        change();
+    }
+
+    /**
+     * Change a random tile on each of four threads.
+     */
+    @Benchmark
+    @Threads(4)
+    public void fourThreads() {
+        change();
+    }
+
+    /**
+     * Change a random tile on each of eight threads.
+     */
+    @Benchmark
+    @Threads(8)
+    public void eightThreads() {
+        change();
+    }
+
+    /**
+     * Change a random tile.
+     */
+    private void change() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        this.server.tileUpdate(new PlaceTile(random.nextInt(DIM), random.nextInt(DIM), "",
+                COLORS[random.nextInt(COLORS.length)]), this.owner);
+    }
+}
@@ -0,0 +1,83 @@
+package place.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import place.PlaceBoard;
+import place.PlaceTile;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times changing and reading tiles and printing the board, at board sizes
+ * from small to the largest the server is run with.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BoardBenchmark {
+    /** The square dimension of the board */
+    @Param({ "64", "512", "4096" })
+    public int dim;
+
+    /** The board */
+    private PlaceBoard board;
+    /** The id the changes are made as */
+    private int owner;
+    /** The changes, cycled through */
+    private PlaceTile[] tiles;
+    /** Which change is next */
+    private int next;
+
+    /**
+     * Make the board and the changes.
+     */
+    @Setup
+    public void setUp() {
+        this.board = new PlaceBoard(this.dim);
+        this.owner = this.board.getOwners().intern("bench");
+        this.tiles = Tiles.scattered(this.dim);
+    }
+
+    /**
+     * Change a tile.
+     *
+     * @return the change's sequence number
+     */
+    @Benchmark
+    public long setTile() {
+        return this.board.setTile(this.tiles[this.next++ & (Tiles.COUNT - 1)], this.owner);
+    }
+
+    /**
+     * Build a tile from the board.
+     *
+     * @return the tile
+     */
+    @Benchmark
+    public PlaceTile getTile() {
+        PlaceTile tile = this.tiles[this.next++ & (Tiles.COUNT - 1)];
+        return this.board.getTile(tile.getRow(), tile.getCol());
+    }
+
+    /**
+     * Print the board.
+     *
+     * @return the board as a string
+     */
+    @Benchmark
+    public String print() {
+        return this.board.toString();
+    }
+}
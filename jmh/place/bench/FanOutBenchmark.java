@@ -0,0 +1,109 @@
+package place.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import place.PlaceException;
+import place.PlaceTile;
+import place.network.PlaceExchange;
+import place.network.PlaceProtocol;
+import place.network.PlaceRequest;
+import place.server.PlaceServer;
+import place.server.PlaceServerConfig;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times a tile change going out to a crowd of clients.  The clients are
+ * sockets in this process that read and drop everything they get; a
+ * change is done when it has been queued for each of them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FanOutBenchmark {
+    /** How many clients a change goes out to */
+    @Param({ "1", "16", "256" })
+    public int clients;
+
+    /** The server, broadcasting every change as it is made */
+    private PlaceServer server;
+    /** The clients' connections */
+    private final List<PlaceExchange> connections = new ArrayList<>();
+    /** The id the changes are made as */
+    private int owner;
+    /** The changes, cycled through */
+    private PlaceTile[] tiles;
+    /** Which change is next */
+    private int next;
+
+    /**
+     * Start a server and log the clients in.
+     *
+     * @throws PlaceException if the server can't start
+     * @throws IOException if a client can't connect
+     */
+    @Setup
+    public void setUp() throws PlaceException, IOException {
+        this.server = PlaceServer.start(PlaceServerConfig.parse(new String[]{ "0", "64", "--tick=0", "--rate=0" }));
+        for (int i = 0; i < this.clients; ++i) {
+            PlaceExchange client = PlaceProtocol.connect("localhost", this.server.getPort());
+            this.connections.add(client);
+            client.send(new PlaceRequest<>(PlaceRequest.RequestType.LOGIN, "bench" + i));
+            client.receive();
+            client.receive();
+            Thread reader = new Thread(() -> {
+                try {
+                    while (true) {
+                        client.receive();
+                    }
+                } catch (IOException ignored) {
+                }
+            });
+            reader.setDaemon(true);
+            reader.start();
+        }
+        this.owner = this.server.getBoard().getOwners().intern("bench");
+        this.tiles = Tiles.scattered(64);
+    }
+
+    /**
+     * Hang up the clients and stop the server.
+     *
+     * @throws IOException if a connection can't be closed
+     */
+    @TearDown
+    public void tearDown() throws IOException {
+        for (PlaceExchange client : this.connections) {
+            client.close();
+        }
+        this.server.close();
+    }
+
+    /**
+     * Change a tile and queue the change for every client.
+     *
+     * @return the board's latest sequence number
+     */
+    @Benchmark
+    public long tileUpdate() {
+        PlaceTile tile = this.tiles[this.next++ & (Tiles.COUNT - 1)];
+        this.server.tileUpdate(new PlaceTile(tile.getRow(), tile.getCol(), "", tile.getColor()), this.owner);
+        return this.server.getBoard().getSeq();
+    }
+}
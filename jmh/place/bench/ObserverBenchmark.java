@@ -0,0 +1,68 @@
+package place.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import place.PlaceBoard;
+import place.PlaceBoardObservable;
+import place.PlaceTile;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times a client applying a change and telling the views that watch its
+ * board.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ObserverBenchmark {
+    /** How many views watch the board */
+    @Param({ "0", "1", "8" })
+    public int observers;
+
+    /** The client's board */
+    private PlaceBoardObservable observable;
+    /** The changes, cycled through */
+    private PlaceTile[] tiles;
+    /** Which change is next */
+    private int next;
+    /** How many times the views have been told of a change */
+    private long seen;
+
+    /**
+     * Make the board and its views, which count what they are told.
+     */
+    @Setup
+    @SuppressWarnings("deprecation")
+    public void setUp() {
+        this.observable = new PlaceBoardObservable();
+        this.observable.createBoard(new PlaceBoard(512));
+        for (int i = 0; i < this.observers; ++i) {
+            this.observable.addObserver((o, arg) -> ++this.seen);
+        }
+        this.tiles = Tiles.scattered(512);
+    }
+
+    /**
+     * Apply a change and tell the views.
+     *
+     * @return how many times the views have been told so far
+     */
+    @Benchmark
+    public long moveDisplay() {
+        this.observable.moveDisplay(this.tiles[this.next++ & (Tiles.COUNT - 1)]);
+        return this.seen;
+    }
+}
@@ -0,0 +1,38 @@
+package place.bench;
+
+import place.PlaceColor;
+import place.PlaceTile;
+
+import java.util.Random;
+
+/**
+ * The tile changes the benchmarks make, scattered over a board and the
+ * same ones every run.
+ */
+final class Tiles {
+    /** How many different tiles a benchmark cycles through; a power of two */
+    final static int COUNT = 4096;
+
+    /**
+     * Nothing to make; it only holds tiles.
+     */
+    private Tiles() {
+    }
+
+    /**
+     * Make tiles scattered over a board.
+     *
+     * @param dim the board dimension
+     * @return {@link #COUNT} tiles
+     */
+    static PlaceTile[] scattered(int dim) {
+        Random random = new Random(dim);
+        PlaceColor[] colors = PlaceColor.values();
+        PlaceTile[] tiles = new PlaceTile[COUNT];
+        for (int i = 0; i < tiles.length; ++i) {
+            tiles[i] = new PlaceTile(random.nextInt(dim), random.nextInt(dim), "",
+                    colors[random.nextInt(colors.length)], i);
+        }
+        return tiles;
+    }
+}
@@ -0,0 +1,138 @@
+package place.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import place.PlaceBoard;
+import place.PlaceTile;
+import place.network.PlaceCodec;
+import place.network.PlaceProtocol;
+import place.network.PlaceRequest;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times turning requests into bytes and back, both with Java serialization,
+ * which old clients speak, and with the binary protocol.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WireBenchmark {
+    /** What the request holds: one tile, or a whole board of some dimension */
+    @Param({ "tile", "board-64", "board-1024" })
+    public String request;
+
+    /** The request */
+    private PlaceRequest<?> sent;
+    /** Where requests are written */
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    /** The request serialized */
+    private byte[] serialized;
+    /** Encodes and decodes the request */
+    private PlaceCodec codec;
+    /** The request encoded */
+    private byte[] encoded;
+
+    /**
+     * Make the request, and the bytes it turns into each way.
+     *
+     * @throws IOException if it can't be written
+     */
+    @Setup
+    public void setUp() throws IOException {
+        PlaceBoard board;
+        if (this.request.equals("tile")) {
+            board = new PlaceBoard(64);
+            PlaceTile tile = Tiles.scattered(64)[0];
+            tile.setOwner("bench");
+            this.sent = new PlaceRequest<>(PlaceRequest.RequestType.TILE_CHANGED, tile);
+        } else {
+            int dim = Integer.parseInt(this.request.substring("board-".length()));
+            board = new PlaceBoard(dim);
+            for (PlaceTile change : Tiles.scattered(dim)) {
+                change.setOwner("bench");
+                board.setTile(change);
+            }
+            this.sent = new PlaceRequest<>(PlaceRequest.RequestType.BOARD, board);
+        }
+        this.codec = new PlaceCodec(board.getOwners(), PlaceProtocol.VERSION);
+        this.serialized = serialize();
+        //the first encoding announces the tile's owner; the rest don't
+        encode();
+        this.encoded = encode();
+    }
+
+    /**
+     * Serialize the request.
+     *
+     * @return the bytes
+     * @throws IOException if it can't be written
+     */
+    @Benchmark
+    public byte[] serialize() throws IOException {
+        this.bytes.reset();
+        try (ObjectOutputStream out = new ObjectOutputStream(this.bytes)) {
+            out.writeObject(this.sent);
+        }
+        return this.bytes.toByteArray();
+    }
+
+    /**
+     * Deserialize the request.
+     *
+     * @return the request
+     * @throws IOException if it can't be read
+     * @throws ClassNotFoundException if a class is missing
+     */
+    @Benchmark
+    public Object deserialize() throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(this.serialized))) {
+            return in.readObject();
+        }
+    }
+
+    /**
+     * Encode the request in the binary protocol.
+     *
+     * @return the bytes
+     * @throws IOException if it can't be written
+     */
+    @Benchmark
+    public byte[] encode() throws IOException {
+        this.bytes.reset();
+        DataOutputStream out = new DataOutputStream(this.bytes);
+        this.codec.encode(this.sent, out);
+        out.flush();
+        return this.bytes.toByteArray();
+    }
+
+    /**
+     * Decode the request from the binary protocol.
+     *
+     * @return the request
+     * @throws IOException if it can't be read
+     */
+    @Benchmark
+    public PlaceRequest<?> decode() throws IOException {
+        return this.codec.decode(new DataInputStream(new ByteArrayInputStream(this.encoded)));
+    }
+}
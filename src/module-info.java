@@ -1,5 +1,7 @@
 //Shrif Rai was here
 module Place {
     requires transitive javafx.controls;
+    requires java.management;
+    requires jdk.httpserver;
     exports place.client.gui;
 }
@@ -1,19 +1,100 @@
 package place;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 /**
  * The board is the place that holds the colored tiles.  The server creates
  * the initial Board and then transmits it only once to each client that
  * successfully logs in to the server. bees bees
  *
+ * The tiles are not stored as objects.  The colors are kept in a packed
+ * plane of 4 bit values (two tiles per byte) and the owner id and time of
+ * each tile live in their own parallel columns, all in row major order.
+ * Owner ids are resolved to names through the board's {@link PlaceOwners}.
+ * A {@link PlaceTile} is only built when someone asks for one.
+ *
+ * Every change has a sequence number, either its own or the next one the
+ * board hands out, and the board is cut into {@link #CHUNK} square chunks
+ * that each remember the number of their latest change.  Whatever is built from the board, such as its compressed
+ * image or a resync for a client that fell behind, only has to look again
+ * at the chunks that changed since it was last built.
+ *
+ * Serialized, the board still takes the form it had before its tiles were
+ * packed, a dimension and a grid of tiles, so clients from before then can
+ * read it.  The sequence number goes along with them; older clients skip
+ * it.
+ *
  * @author Sean Strout @ RIT CS
  */
 public class PlaceBoard implements Serializable {
+    /** Pinned to the value from before the tiles were packed, which is the form still sent */
+    private static final long serialVersionUID = -6226513820871739594L;
+    /** The fields of the serialized form, which are not the ones the board keeps */
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("DIM", int.class),
+            new ObjectStreamField("board", PlaceTile[][].class),
+            new ObjectStreamField("seq", long.class)
+    };
+    /** The side of a chunk, in tiles */
+    public final static int CHUNK = 64;
+    /** The zlib header of a stream deflated at {@link Deflater#BEST_SPEED} */
+    private final static byte[] ZLIB_HEADER = { 0x78, 0x01 };
+    /** An empty final deflate block, which ends the stream */
+    private final static byte[] LAST_BLOCK = { 0x03, 0x00 };
+
     /** The square dimension of the board */
     public final int DIM;
-    /** The grid of tiles */
-    private PlaceTile[][] board;
+    /** The tile colors, two per byte (even tiles in the low nibble) */
+    private byte[] colors;
+    /** The owner id of each tile */
+    private int[] owners;
+    /** The names behind the owner ids */
+    private PlaceOwners ownerNames;
+    /** The time each tile was last changed, in milliseconds */
+    private long[] times;
+    /**
+     * The sequence number of the latest change on the board.  It is set
+     * after the change itself, so whoever reads it sees the board with at
+     * least every change up to that one.  The numbers the board hands out
+     * itself are for one thread at a time, such as one replaying a log;
+     * changes made on many threads at once bring their own numbers, and
+     * whoever numbered them moves this on with {@link #setSeq(long)}.
+     */
+    private volatile long seq;
+    /** How many chunks across the board is */
+    private final int chunkSide;
+    /** The sequence number of the latest change in each chunk, row major */
+    private AtomicLongArray chunkVersions;
+    /** The latest compressed color plane, or null if it hasn't been made */
+    private transient volatile CompressedColors compressed;
+    /** Held while the compressed color plane is made, and guards the band fields */
+    private final transient ReentrantLock compressLock = new ReentrantLock();
+    /** Each row of chunks' part of the color plane, deflated on its own */
+    private transient byte[][] bandImages;
+    /** The Adler-32 checksum of each row of chunks' part of the color plane */
+    private transient long[] bandChecksums;
+    /** The sequence number each row of chunks was deflated at */
+    private transient long[] bandVersions;
+    /** A board read from a stream, made from its tiles and taken in place of this one */
+    private transient PlaceBoard rebuilt;
 
     /**
      * Create a new board of all white tiles.
@@ -22,26 +103,39 @@ public class PlaceBoard implements Serializable {
      */
     public PlaceBoard(int DIM) {
         this.DIM = DIM;
-        this.board = new PlaceTile[DIM][DIM];
-        for (int row=0; row<DIM; ++row) {
-            for (int col=0; col<DIM; ++col) {
-                this.board[row][col] =
-                        new PlaceTile(row, col, "", PlaceColor.WHITE);
-            }
-        }
+        int tiles = DIM * DIM;
+        this.colors = new byte[(tiles + 1) / 2];
+        this.owners = new int[tiles];
+        this.ownerNames = new PlaceOwners();
+        this.times = new long[tiles];
+        this.chunkSide = (DIM + CHUNK - 1) / CHUNK;
+        this.chunkVersions = new AtomicLongArray(this.chunkSide * this.chunkSide);
+
+        //every nibble starts out white
+        int white = PlaceColor.WHITE.getNumber();
+        Arrays.fill(this.colors, (byte) (white << 4 | white));
     }
 
     /**
-     * Get the entire board.
+     * Get the entire board.  The tiles are built fresh on every call, so
+     * this is expensive for large boards and changing them does not change
+     * the board.
      *
      * @return the board
      */
     public PlaceTile[][] getBoard() {
-        return this.board;
+        PlaceTile[][] grid = new PlaceTile[DIM][DIM];
+        for (int row=0; row<DIM; ++row) {
+            for (int col=0; col<DIM; ++col) {
+                grid[row][col] = getTile(row, col);
+            }
+        }
+        return grid;
     }
 
     /**
-     * Get a tile on the board
+     * Get a tile on the board.  The tile is a view built on demand;
+     * changing it does not change the board.
      *
      * @param row row
      * @param col column
@@ -49,7 +143,41 @@ public class PlaceBoard implements Serializable {
      * @return the tile
      */
     public PlaceTile getTile(int row, int col){
-        return this.board[row][col];
+        int index = index(row, col);
+        return new PlaceTile(row, col, getOwner(index), getColor(index), this.times[index]);
+    }
+
+    /**
+     * Get the color of a tile without building the tile.
+     *
+     * @param row row
+     * @param col column
+     * @rit.pre row and column constitute a valid board coordinate
+     * @return the color
+     */
+    public PlaceColor getColor(int row, int col) {
+        return getColor(index(row, col));
+    }
+
+    /**
+     * Get the owner id of a tile without building the tile.
+     *
+     * @param row row
+     * @param col column
+     * @rit.pre row and column constitute a valid board coordinate
+     * @return the owner id
+     */
+    public int getOwnerId(int row, int col) {
+        return this.owners[index(row, col)];
+    }
+
+    /**
+     * Get the dictionary that turns owner ids into names.
+     *
+     * @return the owner dictionary
+     */
+    public PlaceOwners getOwners() {
+        return this.ownerNames;
     }
 
     /**
@@ -59,7 +187,123 @@ public class PlaceBoard implements Serializable {
      * @rit.pre row and column constitute a valid board coordinate
      */
     public void setTile(PlaceTile tile) {
-        this.board[tile.getRow()][tile.getCol()] = tile;
+        setTile(tile, this.ownerNames.intern(tile.getOwner()));
+    }
+
+    /**
+     * Change a tile in the board when the owner's id is already known.  A
+     * tile that already has a sequence number keeps it and leaves the
+     * board's own number alone, so tiles in different chunks can be set at
+     * the same time; two tiles that share a byte of the color plane must
+     * not be.  Otherwise the tile takes the next number.
+     *
+     * @param tile the new tile
+     * @param ownerId the id of the tile's owner in this board's dictionary
+     * @rit.pre row and column constitute a valid board coordinate
+     * @return the change's sequence number
+     */
+    public long setTile(PlaceTile tile, int ownerId) {
+        if (tile.getSeq() == 0) {
+            return setTile(tile.getRow(), tile.getCol(), tile.getColor().getNumber(), ownerId, tile.getTime());
+        }
+        int index = index(tile.getRow(), tile.getCol());
+        setColor(index, tile.getColor().getNumber());
+        this.owners[index] = ownerId;
+        this.times[index] = tile.getTime();
+        //changes to a chunk may land out of order; it keeps the newest number
+        this.chunkVersions.accumulateAndGet(chunk(tile.getRow(), tile.getCol()), tile.getSeq(), Math::max);
+        return tile.getSeq();
+    }
+
+    /**
+     * Change a tile in the board from its raw values, without building a
+     * tile.  This is how a board is rebuilt from a log.
+     *
+     * @param row row
+     * @param col column
+     * @param color the color number, 0-15
+     * @param ownerId the id of the tile's owner in this board's dictionary
+     * @param time when the tile was changed, in milliseconds
+     * @rit.pre row and column constitute a valid board coordinate
+     * @return the change's sequence number
+     */
+    public long setTile(int row, int col, int color, int ownerId, long time) {
+        int index = index(row, col);
+        setColor(index, color);
+        this.owners[index] = ownerId;
+        this.times[index] = time;
+        long next = this.seq + 1;
+        this.chunkVersions.set(chunk(row, col), next);
+        this.seq = next;
+        return next;
+    }
+
+    /**
+     * Get the sequence number of the latest change on the board.
+     *
+     * @return the sequence number, 0 for a new board
+     */
+    public long getSeq() {
+        return this.seq;
+    }
+
+    /**
+     * Move the sequence number on, so the next change takes the number
+     * after this one.  The server starts its count from the clock, so the
+     * numbers don't start over when it restarts, and moves it on past the
+     * changes it numbered itself once they have all been set.
+     *
+     * @param seq the sequence number, no less than the current one
+     */
+    public void setSeq(long seq) {
+        this.seq = seq;
+    }
+
+    /**
+     * Get the chunks with changes after a sequence number.
+     *
+     * @param since the sequence number
+     * @return the changed chunks, numbered row major
+     */
+    public BitSet changedChunks(long since) {
+        BitSet changed = new BitSet(this.chunkVersions.length());
+        for (int chunk = 0; chunk < this.chunkVersions.length(); ++chunk) {
+            if (this.chunkVersions.get(chunk) > since) {
+                changed.set(chunk);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Get the number of chunks the board is cut into.
+     *
+     * @return the number of chunks
+     */
+    public int getChunkCount() {
+        return this.chunkVersions.length();
+    }
+
+    /**
+     * Get the part of the board a chunk covers.
+     *
+     * @param chunk the chunk's row major number
+     * @return the chunk, cut down to the board
+     */
+    public PlaceRegion getChunk(int chunk) {
+        return new PlaceRegion(chunk / this.chunkSide * CHUNK, chunk % this.chunkSide * CHUNK, CHUNK, CHUNK)
+                .clip(DIM);
+    }
+
+    /**
+     * The chunk a tile is in.
+     *
+     * @param row row
+     * @param col column
+     * @return the chunk's row major number
+     */
+    public int chunk(int row, int col) {
+        return row / CHUNK * this.chunkSide + col / CHUNK;
     }
 
     /**
@@ -74,6 +318,424 @@ public class PlaceBoard implements Serializable {
                 tile.getCol() < this.DIM;
     }
 
+    /**
+     * Write the board in the fixed layout used by the binary protocol:
+     * the dimension, the owner dictionary, the packed color plane, then
+     * the owner id and time columns.
+     *
+     * @param out where to write the board
+     * @throws IOException if the write fails
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(DIM);
+        this.ownerNames.writeTo(out);
+        out.write(this.colors);
+        for (int owner : this.owners) {
+            out.writeInt(owner);
+        }
+        for (long time : this.times) {
+            out.writeLong(time);
+        }
+    }
+
+    /**
+     * Read a board written by {@link #writeTo(DataOutput)}.
+     *
+     * @param in where to read the board from
+     * @return the board
+     * @throws IOException if the read fails
+     */
+    public static PlaceBoard readFrom(DataInput in) throws IOException {
+        PlaceBoard board = new PlaceBoard(in.readInt());
+        board.ownerNames = PlaceOwners.readFrom(in);
+        in.readFully(board.colors);
+        for (int i = 0; i < board.owners.length; ++i) {
+            board.owners[i] = in.readInt();
+        }
+        for (int i = 0; i < board.times.length; ++i) {
+            board.times[i] = in.readLong();
+        }
+        return board;
+    }
+
+    /**
+     * Make a board of the same size holding only some regions of this one.
+     * Every other tile is white and owned by nobody.  The copy shares this
+     * board's owner dictionary and sequence number.
+     *
+     * @param regions the regions to copy; parts off the board are ignored
+     * @return the copy
+     */
+    public PlaceBoard copyOf(PlaceRegion[] regions) {
+        long seq = this.seq;
+        PlaceBoard copy = new PlaceBoard(DIM);
+        copy.ownerNames = this.ownerNames;
+        for (PlaceRegion region : regions) {
+            PlaceRegion part = region.clip(DIM);
+            for (int row = part.getRow(); row < part.getRow() + part.getHeight(); ++row) {
+                int start = row * DIM + part.getCol();
+                System.arraycopy(this.owners, start, copy.owners, start, part.getWidth());
+                System.arraycopy(this.times, start, copy.times, start, part.getWidth());
+                for (int index = start; index < start + part.getWidth(); ++index) {
+                    copy.setColor(index, getColorNumber(index));
+                }
+            }
+        }
+        copy.seq = seq;
+        return copy;
+    }
+
+    /**
+     * Write the board in its serialized form, as a grid of tiles.  The
+     * number is taken first; the tiles can only be newer than it.
+     *
+     * @param out the stream the board is written to
+     * @throws IOException if the stream fails
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("seq", this.seq);
+        fields.put("DIM", DIM);
+        fields.put("board", getBoard());
+        out.writeFields();
+    }
+
+    /**
+     * Read a board in its serialized form and pack its tiles into a new
+     * board, which {@link #readResolve} hands back in place of this one.
+     *
+     * @param in the stream the board is read from
+     * @throws IOException if the stream fails or the tiles don't make a board
+     * @throws ClassNotFoundException if a class is missing
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        int dim = fields.get("DIM", 0);
+        PlaceTile[][] tiles = (PlaceTile[][]) fields.get("board", null);
+        if (tiles == null || tiles.length != dim) {
+            throw new InvalidObjectException("The tiles don't fill a board of " + dim);
+        }
+        PlaceBoard board = new PlaceBoard(dim);
+        for (PlaceTile[] row : tiles) {
+            if (row == null || row.length != dim) {
+                throw new InvalidObjectException("The tiles don't fill a board of " + dim);
+            }
+            for (PlaceTile tile : row) {
+                if (tile == null || tile.getColor() == null || !board.isValid(tile)) {
+                    throw new InvalidObjectException("Bad tile " + tile);
+                }
+                board.setTile(tile);
+            }
+        }
+        board.seq = fields.get("seq", 0L);
+        this.rebuilt = board;
+    }
+
+    /**
+     * Hand back the board made by {@link #readObject}.
+     *
+     * @return the board
+     */
+    private Object readResolve() {
+        return this.rebuilt;
+    }
+
+    /**
+     * The number of bytes {@link #writeColumns} needs for a board.
+     *
+     * @param DIM the square dimension of the board
+     * @return the size of the columns
+     */
+    public static long columnsSize(int DIM) {
+        long tiles = (long) DIM * DIM;
+        return (tiles + 1) / 2 + tiles * 4 + tiles * 8;
+    }
+
+    /**
+     * Copy the packed color plane, then the owner id and time columns, into
+     * a buffer in the buffer's byte order.  The copies are bulk copies with
+     * nothing locked, so a tile that changes meanwhile may come out with a
+     * mix of its old and new values.
+     *
+     * @param out where the columns go; it needs {@link #columnsSize} bytes
+     */
+    public void writeColumns(ByteBuffer out) {
+        out.put(this.colors);
+        out.asIntBuffer().put(this.owners);
+        out.position(out.position() + this.owners.length * 4);
+        out.asLongBuffer().put(this.times);
+        out.position(out.position() + this.times.length * 8);
+    }
+
+    /**
+     * Replace the tiles with columns written by {@link #writeColumns}.  The
+     * owner dictionary is left alone, so it must already know every owner
+     * id in the columns.
+     *
+     * @param in where the columns come from, in the byte order they were
+     *           written in
+     */
+    public void readColumns(ByteBuffer in) {
+        in.get(this.colors);
+        in.asIntBuffer().get(this.owners);
+        in.position(in.position() + this.owners.length * 4);
+        in.asLongBuffer().get(this.times);
+        in.position(in.position() + this.times.length * 8);
+        long next = this.seq + 1;
+        for (int chunk = 0; chunk < this.chunkVersions.length(); ++chunk) {
+            this.chunkVersions.set(chunk, next);
+        }
+        this.seq = next;
+    }
+
+    /**
+     * Get the packed color plane compressed with deflate, for sending the
+     * board without its owner and time columns.  The result is kept and
+     * handed to every caller until the board changes, so a crowd logging
+     * in at once costs one compression.  Don't change the array.
+     *
+     * Each row of chunks is deflated on its own and kept, and only the rows
+     * with changes are deflated again.  The pieces are flushed to a byte
+     * boundary, so they join into one ordinary zlib stream.
+     *
+     * The latest image is published through a volatile field, so callers
+     * asking for one that is up to date don't lock anything.  Making a new
+     * one takes a lock rather than the board's monitor, so a virtual thread
+     * deflating doesn't pin its carrier.
+     *
+     * @return the compressed color plane
+     */
+    public byte[] getCompressedColors() {
+        //everything up to this number is on the plane we are about to read
+        long version = this.seq;
+        CompressedColors latest = this.compressed;
+        if (latest != null && latest.version >= version) {
+            return latest.image;
+        }
+        this.compressLock.lock();
+        try {
+            //someone may have made it while we waited
+            latest = this.compressed;
+            if (latest != null && latest.version >= version) {
+                return latest.image;
+            }
+            latest = new CompressedColors(compress(version), version);
+            this.compressed = latest;
+            return latest.image;
+        } finally {
+            this.compressLock.unlock();
+        }
+    }
+
+    /**
+     * Compress the color plane, deflating again only the rows of chunks
+     * that changed since they were last deflated.  Called with the
+     * compression lock held.
+     *
+     * @param version the sequence number the plane is at least as new as
+     * @return the compressed color plane
+     */
+    private byte[] compress(long version) {
+        if (this.bandImages == null) {
+            this.bandImages = new byte[this.chunkSide][];
+            this.bandChecksums = new long[this.chunkSide];
+            this.bandVersions = new long[this.chunkSide];
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(this.colors.length / 16 + 64);
+        out.write(ZLIB_HEADER, 0, ZLIB_HEADER.length);
+        long checksum = 1;
+        for (int band = 0; band < this.chunkSide; ++band) {
+            long changed = 0;
+            for (int chunk = band * this.chunkSide; chunk < (band + 1) * this.chunkSide; ++chunk) {
+                changed = Math.max(changed, this.chunkVersions.get(chunk));
+            }
+            //a row may hold changes newer than the number we started from;
+            //call it that old, so it is looked at again next time
+            changed = Math.min(changed, version);
+            int from = band * CHUNK * DIM / 2;
+            int to = band == this.chunkSide - 1 ? this.colors.length : (band + 1) * CHUNK * DIM / 2;
+            if (this.bandImages[band] == null || this.bandVersions[band] < changed) {
+                //tiles change under us while we read, so the image and its
+                //checksum are both made from one copy of the row
+                byte[] copy = Arrays.copyOfRange(this.colors, from, to);
+                Adler32 adler = new Adler32();
+                adler.update(copy, 0, copy.length);
+                this.bandImages[band] = deflateBand(copy);
+                this.bandChecksums[band] = adler.getValue();
+                this.bandVersions[band] = changed;
+            }
+            out.write(this.bandImages[band], 0, this.bandImages[band].length);
+            checksum = combineAdler32(checksum, this.bandChecksums[band], to - from);
+        }
+        out.write(LAST_BLOCK, 0, LAST_BLOCK.length);
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            out.write((int) (checksum >>> shift));
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * A compressed color plane and the sequence number it was made at,
+     * published together.
+     */
+    private static class CompressedColors {
+        /** The compressed color plane */
+        private final byte[] image;
+        /** The sequence number it was made at */
+        private final long version;
+
+        /**
+         * Pair an image with its sequence number.
+         *
+         * @param image the compressed color plane
+         * @param version the sequence number it was made at
+         */
+        CompressedColors(byte[] image, long version) {
+            this.image = image;
+            this.version = version;
+        }
+    }
+
+    /**
+     * Deflate part of the color plane into raw deflate blocks that end on a
+     * byte boundary, with no header and no final block.
+     *
+     * @param band a copy of the part
+     * @return the blocks
+     */
+    private static byte[] deflateBand(byte[] band) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        deflater.setInput(band, 0, band.length);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(band.length / 16 + 64);
+        byte[] chunk = new byte[64 * 1024];
+        int deflated;
+        do {
+            deflated = deflater.deflate(chunk, 0, chunk.length, Deflater.SYNC_FLUSH);
+            out.write(chunk, 0, deflated);
+        } while (deflated == chunk.length);
+        deflater.end();
+        return out.toByteArray();
+    }
+
+    /**
+     * Work out the Adler-32 checksum of two pieces of data put together
+     * from the checksums of each, as zlib's adler32_combine does.
+     *
+     * @param first the checksum of the first piece
+     * @param second the checksum of the second piece
+     * @param length the length of the second piece
+     * @return the checksum of both
+     */
+    private static long combineAdler32(long first, long second, long length) {
+        final long base = 65521;
+        long remainder = length % base;
+        long sum1 = first & 0xFFFF;
+        long sum2 = remainder * sum1 % base;
+        sum1 += (second & 0xFFFF) + base - 1;
+        sum2 += (first >>> 16 & 0xFFFF) + (second >>> 16 & 0xFFFF) + base - remainder;
+        if (sum1 >= base) sum1 -= base;
+        if (sum1 >= base) sum1 -= base;
+        if (sum2 >= base << 1) sum2 -= base << 1;
+        if (sum2 >= base) sum2 -= base;
+        return sum1 | sum2 << 16;
+    }
+
+    /**
+     * Make a board from a color plane compressed by
+     * {@link #getCompressedColors}.  Every tile is owned by nobody at time 0
+     * until told otherwise.
+     *
+     * @param DIM the square dimension of the board
+     * @param compressed the compressed color plane
+     * @return the board
+     * @throws IOException if the data isn't a compressed plane of that size
+     */
+    public static PlaceBoard fromCompressedColors(int DIM, byte[] compressed) throws IOException {
+        PlaceBoard board = new PlaceBoard(DIM);
+        Inflater inflater = new Inflater();
+        inflater.setInput(compressed);
+        try {
+            int filled = 0;
+            while (filled < board.colors.length && !inflater.finished()) {
+                int inflated = inflater.inflate(board.colors, filled, board.colors.length - filled);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                filled += inflated;
+            }
+            if (filled != board.colors.length) {
+                throw new StreamCorruptedException("The board image is too short");
+            }
+        } catch (DataFormatException e) {
+            throw new StreamCorruptedException("Bad board image: " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+        return board;
+    }
+
+    /**
+     * The position of a tile in the packed columns.
+     *
+     * @param row row
+     * @param col column
+     * @return the row major index of the tile
+     */
+    private int index(int row, int col) {
+        if (row < 0 || row >= DIM || col < 0 || col >= DIM) {
+            throw new ArrayIndexOutOfBoundsException("(" + row + "," + col + ")");
+        }
+        return row * DIM + col;
+    }
+
+    /**
+     * Read the color number of a tile out of the packed plane.
+     *
+     * @param index row major index of the tile
+     * @return the color number, 0-15
+     */
+    private int getColorNumber(int index) {
+        int packed = this.colors[index >> 1];
+        return (index & 1) == 0 ? packed & 0x0F : (packed >> 4) & 0x0F;
+    }
+
+    /**
+     * Read the color of a tile out of the packed plane.
+     *
+     * @param index row major index of the tile
+     * @return the color
+     */
+    private PlaceColor getColor(int index) {
+        return PlaceColor.values()[getColorNumber(index)];
+    }
+
+    /**
+     * Write the color number of a tile into the packed plane.
+     *
+     * @param index row major index of the tile
+     * @param number the color number, 0-15
+     */
+    private void setColor(int index, int number) {
+        int slot = index >> 1;
+        int packed = this.colors[slot];
+        if ((index & 1) == 0) {
+            packed = (packed & 0xF0) | number;
+        } else {
+            packed = (packed & 0x0F) | (number << 4);
+        }
+        this.colors[slot] = (byte) packed;
+    }
+
+    /**
+     * Get the owner of a tile.
+     *
+     * @param index row major index of the tile
+     * @return the owner, or the empty string if nobody owns it
+     */
+    private String getOwner(int index) {
+        return this.ownerNames.getName(this.owners[index]);
+    }
+
     /**
      * Return a string representation of the board.  It displays the tile color as
      * a single character hex value in the range 0-F.
@@ -82,11 +744,12 @@ public class PlaceBoard implements Serializable {
      */
     @Override
     public String toString() {
-        StringBuilder builder = new StringBuilder("");
+        StringBuilder builder = new StringBuilder(DIM * (DIM + 1));
+        int index = 0;
         for (int row=0; row<DIM; ++row) {
             builder.append("\n");
             for (int col=0; col<DIM; ++col) {
-                builder.append(this.board[row][col].getColor());
+                builder.append(Character.toUpperCase(Character.forDigit(getColorNumber(index++), 16)));
             }
         }
         return builder.toString();
@@ -1,9 +1,15 @@
 package place;
 
+import java.util.List;
 import java.util.Observable;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * PlaceBoardObservable is an easy way at grabbing information from the board as needed.
+ *
+ * Observers are told about every change as it happens, on the thread that
+ * made it.  Views that draw at their own pace {@link #watch()} the board
+ * instead and pick up what changed when they are ready.
  * @author Miguel Rosario
  * @author Joey Saltalamacchia
  * @author Shrif Rai
@@ -16,6 +22,9 @@ public class PlaceBoardObservable extends Observable {
     /**Grabs the dimensions of the board*/
     private int DIM;
 
+    /**What changed since each watching view last drew*/
+    private final List<PlaceChanges> watchers = new CopyOnWriteArrayList<>();
+
     /**Create a new board that has a board and a dimension*/
     public void createBoard(PlaceBoard board) {
         this.board = board;
@@ -31,6 +40,17 @@ public class PlaceBoardObservable extends Observable {
     }
 
 
+    /**
+     * Start keeping track of what changes for a view to draw when it is
+     * ready.  What is on the board now is not included.
+     * @return the changes, for the view alone to drain
+     */
+    public PlaceChanges watch() {
+        PlaceChanges changes = new PlaceChanges(this.DIM);
+        this.watchers.add(changes);
+        return changes;
+    }
+
     /**
      * Get the tile at the current spot at row / col positioning
      * @param row row
@@ -49,13 +69,46 @@ public class PlaceBoardObservable extends Observable {
         return this.board;
     }
 
+    /**
+     * Replace the whole board, for when the server sends a fresh one, and
+     * tell the observers.  They are passed the new board.
+     * @param board the new board
+     */
+    public void replaceBoard(PlaceBoard board) {
+        createBoard(board);
+        for (PlaceChanges changes : this.watchers) {
+            changes.replaced(board.DIM);
+        }
+        super.setChanged();
+        super.notifyObservers(board);
+    }
+
     /**
      * sets the tile and then shows the move from the observer
      * @param tile tile
      */
     public void moveDisplay(PlaceTile tile){
         this.board.setTile(tile);
+        for (PlaceChanges changes : this.watchers) {
+            changes.changed(tile.getRow(), tile.getCol());
+        }
         super.setChanged();
         super.notifyObservers(tile);
     }
+
+    /**
+     * sets a batch of tiles and then shows them all with one notification.
+     * The observers are passed the whole array.
+     * @param tiles tiles
+     */
+    public void moveDisplay(PlaceTile[] tiles){
+        for (PlaceTile tile : tiles) {
+            this.board.setTile(tile);
+            for (PlaceChanges changes : this.watchers) {
+                changes.changed(tile.getRow(), tile.getCol());
+            }
+        }
+        super.setChanged();
+        super.notifyObservers(tiles);
+    }
 }
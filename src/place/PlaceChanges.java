@@ -0,0 +1,177 @@
+package place;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The tiles of a {@link PlaceBoardObservable} that changed since a view
+ * last drew them.  The thread reading the network marks tiles as it
+ * changes them, which never waits and never calls into the view; the view
+ * drains the marks when it is ready to draw, at its own frame rate.
+ *
+ * A tile is only marked once however often it changes before the view
+ * gets to it, and the view reads the tile from the board as it is then,
+ * so a tile painted over and over between frames is drawn once.  Each
+ * view has its own, from {@link PlaceBoardObservable#watch()}, and only
+ * that view drains it.
+ */
+public class PlaceChanges {
+    /**
+     * Told about each tile that changed.
+     */
+    public interface Tiles {
+        /**
+         * A tile changed; its new value is on the board.
+         *
+         * @param row the tile's row
+         * @param col the tile's column
+         */
+        void changed(int row, int col);
+    }
+
+    /** Ignores the tiles, for {@link #clear()} */
+    private final static Tiles IGNORE = (row, col) -> {};
+
+    /** The marks for the board being watched; replaced with the board */
+    private volatile Marks marks;
+    /** The marks the view last drained; only the view uses this */
+    private Marks drained;
+
+    /**
+     * Start watching a board with nothing changed yet.
+     *
+     * @param dim the square dimension of the board
+     */
+    PlaceChanges(int dim) {
+        this.marks = new Marks(dim);
+        this.drained = this.marks;
+    }
+
+    /**
+     * Mark a tile as changed.  Called after the board has it.
+     *
+     * @param row the tile's row
+     * @param col the tile's column
+     */
+    void changed(int row, int col) {
+        Marks marks = this.marks;
+        if (row < marks.dim && col < marks.dim) {
+            marks.mark(row * marks.dim + col);
+        }
+    }
+
+    /**
+     * Start over for a whole new board.  Called after the board has been
+     * replaced.
+     *
+     * @param dim the square dimension of the new board
+     */
+    void replaced(int dim) {
+        this.marks = new Marks(dim);
+    }
+
+    /**
+     * Take the tiles that changed since the last time.  Each is given once,
+     * and should be drawn as it is on the board now.  A tile that changes
+     * again while this runs may be given again here or next time.
+     *
+     * @param changed told about each tile that changed
+     * @return true if the board was replaced and should be drawn whole
+     *         instead; then no tiles are given
+     */
+    public boolean drain(Tiles changed) {
+        Marks marks = this.marks;
+        if (marks != this.drained) {
+            this.drained = marks;
+            return true;
+        }
+        take(marks, changed);
+        return false;
+    }
+
+    /**
+     * Forget what changed, for a view that draws the whole board anyway.
+     *
+     * @return true if anything had changed
+     */
+    public boolean clear() {
+        Marks marks = this.marks;
+        if (marks != this.drained) {
+            this.drained = marks;
+            return true;
+        }
+        return take(marks, IGNORE) > 0;
+    }
+
+    /**
+     * Take the marked tiles of a board.  Only those marked when this
+     * starts are certain to be taken, so a busy board can't keep the view
+     * here.
+     *
+     * @param marks the board's marks
+     * @param changed told about each tile
+     * @return how many tiles were taken
+     */
+    private static int take(Marks marks, Tiles changed) {
+        int taken = 0;
+        for (int todo = marks.size.get(); taken < todo; ++taken) {
+            Integer cell = marks.cells.poll();
+            if (cell == null) {
+                break;
+            }
+            marks.size.decrementAndGet();
+            //unmarked before it is read, so a change after the read marks it again
+            marks.unmark(cell);
+            changed.changed(cell / marks.dim, cell % marks.dim);
+        }
+        return taken;
+    }
+
+    /**
+     * Which tiles of one board are marked.
+     */
+    private static class Marks {
+        /** The square dimension of the board */
+        private final int dim;
+        /** A bit for each tile, set while it is marked */
+        private final AtomicLongArray bits;
+        /** The marked tiles' row major indexes, in the order they were marked */
+        private final Queue<Integer> cells = new ConcurrentLinkedQueue<>();
+        /** How many are in the queue */
+        private final AtomicInteger size = new AtomicInteger();
+
+        /**
+         * Create marks for a board with nothing marked.
+         *
+         * @param dim the square dimension of the board
+         */
+        Marks(int dim) {
+            this.dim = dim;
+            this.bits = new AtomicLongArray((int) (((long) dim * dim + 63) / 64));
+        }
+
+        /**
+         * Mark a tile, unless it already is.
+         *
+         * @param cell the tile's row major index
+         */
+        void mark(int cell) {
+            long bit = 1L << cell;
+            if ((this.bits.getAndAccumulate(cell >>> 6, bit, (word, b) -> word | b) & bit) == 0) {
+                this.cells.add(cell);
+                this.size.incrementAndGet();
+            }
+        }
+
+        /**
+         * Take a tile's mark off.
+         *
+         * @param cell the tile's row major index
+         */
+        void unmark(int cell) {
+            this.bits.getAndAccumulate(cell >>> 6, 1L << cell, (word, b) -> word & ~b);
+        }
+    }
+}
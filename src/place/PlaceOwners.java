@@ -0,0 +1,172 @@
+package place;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The dictionary of tile owners.  Every username that owns a tile is stored
+ * here exactly once and given a small integer id, so the board only needs to
+ * keep an int per tile instead of its own copy of the name.  Id 0 is the
+ * empty owner of a tile nobody has changed yet.
+ *
+ * The server hands out ids as users log in; the dictionary travels with the
+ * board so clients can turn the ids back into names.
+ */
+public class PlaceOwners implements Serializable {
+    /** Pinned so both ends agree on the dictionary whatever compiled them */
+    private static final long serialVersionUID = -5331984330490479610L;
+
+    /** The id of the owner of untouched tiles */
+    public final static int NOBODY = 0;
+
+    /** The names, indexed by id */
+    private final List<String> names = new ArrayList<>();
+    /** The ids, indexed by name (rebuilt after deserialization) */
+    private transient Map<String, Integer> ids = new HashMap<>();
+
+    /**
+     * Create a dictionary that only knows about the empty owner.
+     */
+    public PlaceOwners() {
+        intern("");
+    }
+
+    /**
+     * Get the id for a name, adding the name if it is new.
+     *
+     * @param name the username
+     * @return the id of the name
+     */
+    public synchronized int intern(String name) {
+        Integer id = this.ids.get(name);
+        if (id == null) {
+            id = this.names.size();
+            this.names.add(name);
+            this.ids.put(name, id);
+        }
+        return id;
+    }
+
+    /**
+     * Get the id for a name without adding it.
+     *
+     * @param name the username
+     * @return the id, or -1 if the name is not in the dictionary
+     */
+    public synchronized int getId(String name) {
+        Integer id = this.ids.get(name);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Get the name for an id.
+     *
+     * @param id the owner id
+     * @rit.pre the id came from this dictionary
+     * @return the shared copy of the name
+     */
+    public synchronized String getName(int id) {
+        return this.names.get(id);
+    }
+
+    /**
+     * Get the canonical copy of a name, so callers can drop their own.
+     *
+     * @param name the username
+     * @return the shared copy of the name
+     */
+    public synchronized String canonical(String name) {
+        return this.names.get(intern(name));
+    }
+
+    /**
+     * How many names are in the dictionary, including the empty owner.
+     *
+     * @return the number of names
+     */
+    public synchronized int size() {
+        return this.names.size();
+    }
+
+    /**
+     * Copy the names, in id order.  Whatever writes them out does it from
+     * the copy, so a slow connection never holds up users logging in or
+     * tiles being changed.
+     *
+     * @return the names, indexed by id
+     */
+    private synchronized ArrayList<String> copyNames() {
+        return new ArrayList<>(this.names);
+    }
+
+    /**
+     * Write every name, in id order, for the binary protocol.
+     *
+     * @param out where to write the names
+     * @throws IOException if the write fails
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        List<String> names = copyNames();
+        out.writeInt(names.size());
+        for (String name : names) {
+            out.writeUTF(name);
+        }
+    }
+
+    /**
+     * Read a dictionary written by {@link #writeTo(DataOutput)}.
+     *
+     * @param in where to read the names from
+     * @return the dictionary, with the same ids it was written with
+     * @throws IOException if the read fails
+     */
+    public static PlaceOwners readFrom(DataInput in) throws IOException {
+        PlaceOwners owners = new PlaceOwners();
+        int size = in.readInt();
+        //id 0 is always the empty owner
+        in.readUTF();
+        for (int id = 1; id < size; ++id) {
+            String name = in.readUTF();
+            owners.names.add(name);
+            owners.ids.put(name, id);
+        }
+        return owners;
+    }
+
+    /**
+     * Write a copy of the dictionary as it is now, in the same form as
+     * before.  The stream may be a client's socket, so the copy is written
+     * outside the lock.
+     *
+     * @param out the stream the dictionary is written to
+     * @throws IOException if the stream fails
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("names", copyNames());
+        out.writeFields();
+    }
+
+    /**
+     * Rebuild the name to id lookup after the dictionary is received.
+     *
+     * @param in the stream the dictionary is read from
+     * @throws IOException if the stream fails
+     * @throws ClassNotFoundException if a class is missing
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        this.ids = new HashMap<>();
+        for (int id = 0; id < this.names.size(); ++id) {
+            this.ids.put(this.names.get(id), id);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package place;
+
+import java.io.Serializable;
+
+/**
+ * A rectangle of tiles on the board, such as the part a client is showing.
+ */
+public class PlaceRegion implements Serializable {
+    /** Pinned so both ends agree on regions whatever compiled them */
+    private static final long serialVersionUID = 5584643970644878563L;
+
+    /** the top row */
+    private final int row;
+    /** the left column */
+    private final int col;
+    /** how many rows */
+    private final int height;
+    /** how many columns */
+    private final int width;
+
+    /**
+     * Create a region.
+     *
+     * @param row the top row
+     * @param col the left column
+     * @param height how many rows
+     * @param width how many columns
+     */
+    public PlaceRegion(int row, int col, int height, int width) {
+        this.row = row;
+        this.col = col;
+        this.height = height;
+        this.width = width;
+    }
+
+    /**
+     * Get the top row.
+     *
+     * @return the row
+     */
+    public int getRow() { return this.row; }
+
+    /**
+     * Get the left column.
+     *
+     * @return the column
+     */
+    public int getCol() { return this.col; }
+
+    /**
+     * Get the number of rows.
+     *
+     * @return the height
+     */
+    public int getHeight() { return this.height; }
+
+    /**
+     * Get the number of columns.
+     *
+     * @return the width
+     */
+    public int getWidth() { return this.width; }
+
+    /**
+     * Tells whether a tile is in the region.
+     *
+     * @param row the tile's row
+     * @param col the tile's column
+     * @return true if it is inside
+     */
+    public boolean contains(int row, int col) {
+        return row >= this.row && row - this.row < this.height &&
+                col >= this.col && col - this.col < this.width;
+    }
+
+    /**
+     * Tells whether another region is wholly inside this one.
+     *
+     * @param region the other region
+     * @return true if every tile of it is inside
+     */
+    public boolean contains(PlaceRegion region) {
+        return region.isEmpty() || region.row >= this.row && region.col >= this.col &&
+                (long) region.row + region.height <= (long) this.row + this.height &&
+                (long) region.col + region.width <= (long) this.col + this.width;
+    }
+
+    /**
+     * Cut the region down to the part that is on a board.
+     *
+     * @param DIM the square dimension of the board
+     * @return the part on the board, which is empty if none of it is
+     */
+    public PlaceRegion clip(int DIM) {
+        int top = Math.max(this.row, 0);
+        int left = Math.max(this.col, 0);
+        int bottom = (int) Math.min((long) this.row + Math.max(this.height, 0), DIM);
+        int right = (int) Math.min((long) this.col + Math.max(this.width, 0), DIM);
+        return new PlaceRegion(top, left, Math.max(bottom - top, 0), Math.max(right - left, 0));
+    }
+
+    /**
+     * Tells whether the region has no tiles.
+     *
+     * @return true if it is empty
+     */
+    public boolean isEmpty() {
+        return this.height <= 0 || this.width <= 0;
+    }
+
+    /**
+     * Utility method for debugging only.
+     *
+     * @return the region as a string
+     */
+    @Override
+    public String toString() {
+        return "Region{" +
+                "row=" + this.row +
+                ", col=" + this.col +
+                ", height=" + this.height +
+                ", width=" + this.width +
+                '}';
+    }
+}
@@ -9,6 +9,9 @@ import java.io.Serializable;
  * @author Sean Strout @ RIT CS
  */
 public class PlaceTile implements Serializable {
+    /** Pinned to the value from before tiles had sequence numbers */
+    private static final long serialVersionUID = -507145776981425850L;
+
     /** the row */
     private int row;
     /** the column */
@@ -25,6 +28,13 @@ public class PlaceTile implements Serializable {
      */
     private long time;
 
+    /**
+     * the server's sequence number for the change, which grows by one with
+     * every change it makes.  0 if the tile isn't a change from a server
+     * that numbers them.
+     */
+    private long seq;
+
     /**
      * Create a tile (with no timestamp).
      *
@@ -96,6 +106,20 @@ public class PlaceTile implements Serializable {
      */
     public void setTime(long time) { this.time = time; }
 
+    /**
+     * Get the server's sequence number for this change.
+     *
+     * @return the sequence number, or 0 if there is none
+     */
+    public long getSeq() { return this.seq; }
+
+    /**
+     * Set the server's sequence number for this change.
+     *
+     * @param seq the sequence number
+     */
+    public void setSeq(long seq) { this.seq = seq; }
+
     public String getOwner() {
         return this.user;
     }
@@ -117,6 +141,7 @@ public class PlaceTile implements Serializable {
                 ", user=" + this.user +
                 ", color=" + this.color +
                 ", time=" + this.time +
+                ", seq=" + this.seq +
                 '}';
     }
 }
@@ -0,0 +1,468 @@
+package place.bench;
+
+import place.PlaceBoard;
+import place.PlaceException;
+import place.metrics.Histogram;
+import place.network.PlaceExchange;
+import place.network.PlaceProtocol;
+import place.network.PlaceRequest;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Drives a crowd of simulated clients against a running server and reports
+ * how it holds up.  Some of the clients paint and the rest only watch; all
+ * of them are multiplexed on a few event loop threads, so thousands can be
+ * run from one machine.
+ *
+ * $ java place.bench.LoadGenerator host port [options]
+ *
+ * <pre>
+ * --clients=N                    simulated clients (default 1000)
+ * --spectators=R                 spectators for each painter (default 9)
+ * --rate=N                       tile changes each painter makes a second,
+ *                                at random times (default 1)
+ * --spread=uniform|hotspot|zipf  where on the board painters paint
+ *                                (default uniform)
+ * --zipf=S                       the exponent for the zipf spread (default 1)
+ * --ramp=flat|linear|step        how the clients arrive: all at once, evenly
+ *                                over the ramp, or in four waves (default
+ *                                linear)
+ * --ramp-seconds=S               how long the clients take to arrive
+ *                                (default 10)
+ * --seconds=S                    how long to run, ramp included (default 60)
+ * --loops=N                      event loop threads (default: one a core)
+ * </pre>
+ *
+ * e.g. <code>java place.bench.LoadGenerator localhost 5000 --clients=20000
+ * --rate=0.5 --spread=hotspot</code>.  The server's own limit on how fast
+ * a user may paint (--rate on the server) needs to allow the painters'
+ * rate, or their changes come back as errors.
+ *
+ * Every second a line shows the clients logged in, the changes sent and
+ * seen come back in that second, and the latency from sending a change to
+ * seeing it broadcast.  The end shows the totals and the latency
+ * percentiles of the whole run.  A change the server merged into a later
+ * change to the same tile, before either was broadcast, never comes back:
+ * if the later change was the same painter's it is counted as coalesced,
+ * and otherwise as unconfirmed, which busy spreads make common.
+ */
+public class LoadGenerator {
+    /** How long to wait for the last changes to come back, in milliseconds */
+    private final static long DRAIN = 2000;
+    /** How many waves the step ramp has */
+    private final static int STEPS = 4;
+    /** The longest a loop sleeps when it has nobody to paint, in milliseconds */
+    private final static long IDLE = 100;
+
+    /** The server */
+    private final InetSocketAddress address;
+    private int clients = 1000;
+    private double spectators = 9;
+    private double rate = 1;
+    private String spread = "uniform";
+    private double zipf = 1;
+    private String ramp = "linear";
+    private double rampSeconds = 10;
+    private double seconds = 60;
+    private int loops = Runtime.getRuntime().availableProcessors();
+
+    /** What the whole run has seen */
+    private final Stats stats = new Stats();
+
+    /**
+     * Create a generator with the default options.
+     *
+     * @param host the server's host
+     * @param port the server's port
+     */
+    private LoadGenerator(String host, int port) {
+        this.address = new InetSocketAddress(host, port);
+    }
+
+    /**
+     * Run the generator.
+     *
+     * @param args host, port, then options
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("$ java place.bench.LoadGenerator host port [options]");
+            System.exit(1);
+        }
+        LoadGenerator generator = new LoadGenerator(args[0], Integer.parseInt(args[1]));
+        try {
+            for (int i = 2; i < args.length; ++i) {
+                generator.set(args[i]);
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+        generator.run();
+        System.exit(0);
+    }
+
+    /**
+     * Set one option.
+     *
+     * @param arg the option, as --name=value
+     * @throws IllegalArgumentException if the option is unknown or bad
+     */
+    private void set(String arg) {
+        int equals = arg.indexOf('=');
+        if (!arg.startsWith("--") || equals < 0) {
+            throw new IllegalArgumentException("Options look like --name=value, not " + arg);
+        }
+        String value = arg.substring(equals + 1);
+        switch (arg.substring(2, equals)) {
+            case "clients":
+                this.clients = Integer.parseInt(value);
+                break;
+            case "spectators":
+                this.spectators = Double.parseDouble(value);
+                break;
+            case "rate":
+                this.rate = Double.parseDouble(value);
+                break;
+            case "spread":
+                this.spread = value;
+                break;
+            case "zipf":
+                this.zipf = Double.parseDouble(value);
+                break;
+            case "ramp":
+                this.ramp = value;
+                break;
+            case "ramp-seconds":
+                this.rampSeconds = Double.parseDouble(value);
+                break;
+            case "seconds":
+                this.seconds = Double.parseDouble(value);
+                break;
+            case "loops":
+                this.loops = Integer.parseInt(value);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown option " + arg);
+        }
+        if (this.clients < 1 || this.spectators < 0 || this.rate <= 0 || this.loops < 1) {
+            throw new IllegalArgumentException("Bad value in " + arg);
+        }
+    }
+
+    /**
+     * Connect the clients as the ramp says, let them run, then report.
+     */
+    private void run() throws IOException, InterruptedException {
+        Spread where = Spread.of(this.spread, probe(), this.zipf);
+
+        List<Loop> running = new ArrayList<>(this.loops);
+        for (int i = 0; i < this.loops; ++i) {
+            Loop loop = new Loop(i);
+            running.add(loop);
+            loop.start();
+        }
+        List<SimulatedClient> crowd = new ArrayList<>(this.clients);
+        for (int i = 0; i < this.clients; ++i) {
+            //spread the painters evenly through the crowd
+            boolean painter = Math.floor((i + 1) / (1 + this.spectators)) > Math.floor(i / (1 + this.spectators));
+            crowd.add(new SimulatedClient("load" + i, painter, this.stats, where, this.rate));
+        }
+
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "load-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long start = System.nanoTime();
+        System.out.printf("%6s %9s %9s %11s %7s %9s %9s %9s%n",
+                "secs", "clients", "sent/s", "confirmed/s", "errors", "p50 us", "p99 us", "max us");
+        reporter.scheduleAtFixedRate(() -> report(start), 1, 1, TimeUnit.SECONDS);
+
+        for (int i = 0; i < crowd.size(); ++i) {
+            sleepUntil(start + arrival(i));
+            running.get(i % running.size()).add(crowd.get(i));
+        }
+        sleepUntil(start + (long) (this.seconds * 1e9));
+        for (Loop loop : running) {
+            loop.painting = false;
+        }
+        Thread.sleep(DRAIN);
+        reporter.shutdownNow();
+        for (Loop loop : running) {
+            loop.running = false;
+            loop.selector.wakeup();
+            loop.join();
+        }
+        long unconfirmed = this.stats.unconfirmed.sum();
+        int painters = 0;
+        for (SimulatedClient client : crowd) {
+            unconfirmed += client.getPending();
+            painters += client.painter ? 1 : 0;
+        }
+        summarize(painters, unconfirmed, (System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * Log in once to find out how big the board is.
+     *
+     * @return the board's dimension
+     */
+    private int probe() throws IOException {
+        try (PlaceExchange probe = PlaceProtocol.connect(this.address.getHostString(), this.address.getPort())) {
+            probe.send(new PlaceRequest<>(PlaceRequest.RequestType.LOGIN, "load-probe" + System.nanoTime()));
+            while (true) {
+                PlaceRequest<?> request = probe.receive();
+                switch (request.getType()) {
+                    case BOARD:
+                        return ((PlaceBoard) request.getData()).DIM;
+                    case ERROR:
+                        throw new IOException("The server turned the probe away: " + request.getData());
+                    default:
+                        break;
+                }
+            }
+        }
+    }
+
+    /**
+     * When a client arrives, counted from the start.
+     *
+     * @param i the client's number
+     * @return the time, in nanoseconds
+     */
+    private long arrival(int i) {
+        double share;
+        switch (this.ramp) {
+            case "flat":
+                share = 0;
+                break;
+            case "step":
+                share = (double) (i * STEPS / this.clients) / STEPS;
+                break;
+            default:
+                share = (double) i / this.clients;
+                break;
+        }
+        return (long) (share * this.rampSeconds * 1e9);
+    }
+
+    /**
+     * Print what happened in the last second.
+     *
+     * @param start when the run started, in {@link System#nanoTime()} terms
+     */
+    private void report(long start) {
+        long sent = this.stats.sent.sum();
+        long confirmed = this.stats.confirmed.sum();
+        Histogram recent = this.stats.recent;
+        System.out.printf("%6.0f %9d %9d %11d %7d %9d %9d %9d%n",
+                (System.nanoTime() - start) / 1e9, this.stats.connected.sum(),
+                sent - this.stats.lastSent, confirmed - this.stats.lastConfirmed, this.stats.errors.sum(),
+                recent.getValueAtPercentile(50), recent.getValueAtPercentile(99), recent.getMax());
+        recent.reset();
+        this.stats.lastSent = sent;
+        this.stats.lastConfirmed = confirmed;
+    }
+
+    /**
+     * Print the totals of the run.
+     *
+     * @param painters how many of the clients painted
+     * @param unconfirmed changes that never came back
+     * @param elapsed how long the run took, in seconds
+     */
+    private void summarize(int painters, long unconfirmed, double elapsed) {
+        Stats stats = this.stats;
+        Histogram latency = stats.latency;
+        System.out.println();
+        System.out.printf("clients      %d (%d painting, %d watching), %d failed to connect, %d dropped%n",
+                this.clients, painters, this.clients - painters, stats.failures.sum(), stats.disconnects.sum());
+        System.out.printf("changes      %d sent (%.0f/s), %d confirmed, %d coalesced, %d unconfirmed%n",
+                stats.sent.sum(), stats.sent.sum() / elapsed, stats.confirmed.sum(),
+                stats.coalesced.sum(), unconfirmed);
+        System.out.printf("errors       %d%n", stats.errors.sum());
+        System.out.printf("received     %d frames, %.1f MB (%.1f MB/s)%n",
+                stats.frames.sum(), stats.bytes.sum() / 1e6, stats.bytes.sum() / 1e6 / elapsed);
+        System.out.printf("latency us   p50 %d  p90 %d  p99 %d  p99.9 %d  max %d  mean %.0f%n",
+                latency.getValueAtPercentile(50), latency.getValueAtPercentile(90),
+                latency.getValueAtPercentile(99), latency.getValueAtPercentile(99.9),
+                latency.getMax(), latency.getMean());
+    }
+
+    /**
+     * Sleep until a time.
+     *
+     * @param deadline the time, in {@link System#nanoTime()} terms
+     */
+    private static void sleepUntil(long deadline) throws InterruptedException {
+        long left;
+        while ((left = deadline - System.nanoTime()) > 0) {
+            TimeUnit.NANOSECONDS.sleep(left);
+        }
+    }
+
+    /**
+     * What the whole run has seen, added up from every loop.
+     */
+    static class Stats {
+        /** Clients logged in now */
+        final LongAdder connected = new LongAdder();
+        /** Changes sent */
+        final LongAdder sent = new LongAdder();
+        /** Changes seen come back */
+        final LongAdder confirmed = new LongAdder();
+        /** Changes merged into a later change before being broadcast */
+        final LongAdder coalesced = new LongAdder();
+        /** Changes given up on */
+        final LongAdder unconfirmed = new LongAdder();
+        /** ERROR frames received */
+        final LongAdder errors = new LongAdder();
+        /** Clients that couldn't connect or log in */
+        final LongAdder failures = new LongAdder();
+        /** Clients the server hung up on */
+        final LongAdder disconnects = new LongAdder();
+        /** Frames received */
+        final LongAdder frames = new LongAdder();
+        /** Bytes received */
+        final LongAdder bytes = new LongAdder();
+        /** Microseconds from sending a change to seeing it broadcast */
+        final Histogram latency = new Histogram();
+        /** The same, since the last report */
+        final Histogram recent = new Histogram();
+        /** Changes sent as of the last report; only the reporter uses it */
+        long lastSent;
+        /** Changes confirmed as of the last report; only the reporter uses it */
+        long lastConfirmed;
+
+        /**
+         * Record how long a change took to come back.
+         *
+         * @param micros the time, in microseconds
+         */
+        void latency(long micros) {
+            this.latency.record(micros);
+            this.recent.record(micros);
+        }
+    }
+
+    /**
+     * An event loop running some of the clients on one selector.  It also
+     * keeps its painters in the order they next paint, and sleeps in the
+     * selector until the first of them is due.
+     */
+    private class Loop extends Thread {
+        /** Waits for the loop's channels */
+        final Selector selector;
+        /** Clients handed to the loop that haven't connected yet */
+        private final Queue<SimulatedClient> arriving = new ConcurrentLinkedQueue<>();
+        /** The painters, soonest first */
+        private final PriorityQueue<SimulatedClient> schedule =
+                new PriorityQueue<>(Comparator.comparingLong(client -> client.nextPaint));
+        /** Where the painters' tiles and colors come from */
+        private final Random random;
+        /** Cleared when the painters should stop */
+        volatile boolean painting = true;
+        /** Cleared when the loop should close its clients and stop */
+        volatile boolean running = true;
+
+        /**
+         * Create a loop.
+         *
+         * @param number the loop's number, for its name and random numbers
+         * @throws IOException if the selector can't be opened
+         */
+        Loop(int number) throws IOException {
+            super("load-loop-" + number);
+            setDaemon(true);
+            this.selector = Selector.open();
+            this.random = new Random(number);
+        }
+
+        /**
+         * Hand the loop a client to connect.
+         *
+         * @param client the client
+         */
+        void add(SimulatedClient client) {
+            this.arriving.add(client);
+            this.selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (this.running) {
+                    SimulatedClient client;
+                    while ((client = this.arriving.poll()) != null) {
+                        try {
+                            client.connect(this.selector, address);
+                        } catch (IOException e) {
+                            stats.failures.increment();
+                            client.close();
+                        }
+                    }
+                    long now = System.nanoTime();
+                    while (this.painting && !this.schedule.isEmpty() && this.schedule.peek().nextPaint <= now) {
+                        client = this.schedule.poll();
+                        if (!client.isClosed()) {
+                            client.paint(now, this.random);
+                            this.schedule.add(client);
+                        }
+                    }
+                    long wait = IDLE;
+                    if (this.painting && !this.schedule.isEmpty()) {
+                        wait = Math.max(1, Math.min(IDLE, (this.schedule.peek().nextPaint - now) / 1_000_000));
+                    }
+                    this.selector.select(wait);
+                    now = System.nanoTime();
+                    for (SelectionKey key : this.selector.selectedKeys()) {
+                        client = (SimulatedClient) key.attachment();
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isConnectable()) {
+                            client.finishConnect();
+                        } else {
+                            if (key.isReadable()) {
+                                client.read(now);
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                client.flush();
+                            }
+                        }
+                        if (client.startsPainting()) {
+                            this.schedule.add(client);
+                        }
+                    }
+                    this.selector.selectedKeys().clear();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                for (SelectionKey key : this.selector.keys()) {
+                    ((SimulatedClient) key.attachment()).close();
+                }
+                try {
+                    this.selector.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package place.bench;
+
+import place.PlaceColor;
+import place.PlaceException;
+import place.PlaceTile;
+import place.network.PlaceExchange;
+import place.network.PlaceProtocol;
+import place.network.PlaceRequest;
+import place.server.PlaceServer;
+import place.server.PlaceServerConfig;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Checks that serialized connections don't grow with their traffic.  An
+ * in-process server broadcasts the given number of tile changes to a few
+ * spectators that only speak Java serialization, and the heap in use is
+ * printed after every tenth of them.  It should level off instead of
+ * climbing for as long as the run lasts.
+ *
+ * $ java place.bench.SerializationSoak broadcasts spectators [server options]
+ *
+ * e.g. <code>java place.bench.SerializationSoak 5000000 4 --reset=256</code>.
+ * Changes are broadcast one at a time unless a --tick is given.  Try a
+ * huge --reset to see the heap grow without resets.
+ */
+public class SerializationSoak {
+    /** The board dimension */
+    private final static int DIM = 64;
+    /** How many heap readings are taken */
+    private final static int READINGS = 10;
+    /**
+     * Requests that may be on their way to each spectator.  It is below the
+     * default queue size so nothing gets coalesced and every change is
+     * really serialized.
+     */
+    private final static int WINDOW = 1024;
+
+    /**
+     * Run the soak.
+     *
+     * @param args the number of broadcasts, the number of spectators, then
+     *             server options
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("$ java place.bench.SerializationSoak broadcasts spectators [server options]");
+            System.exit(1);
+        }
+        long broadcasts = Long.parseLong(args[0]);
+        int count = Integer.parseInt(args[1]);
+
+        //changes go out one at a time unless the options say otherwise
+        String[] serverArgs = new String[args.length + 1];
+        serverArgs[0] = "0";
+        serverArgs[1] = String.valueOf(DIM);
+        serverArgs[2] = "--tick=0";
+        System.arraycopy(args, 2, serverArgs, 3, args.length - 2);
+        PlaceServerConfig config;
+        try {
+            config = PlaceServerConfig.parse(serverArgs);
+        } catch (PlaceException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+            return;
+        }
+
+        AtomicLong received = new AtomicLong();
+        List<PlaceExchange> spectators = new ArrayList<>(count);
+        try (PlaceServer server = PlaceServer.start(config)) {
+            for (int i = 0; i < count; ++i) {
+                PlaceExchange spectator = PlaceProtocol.connectSerialized("localhost", server.getPort());
+                spectators.add(spectator);
+                spectator.send(new PlaceRequest<>(PlaceRequest.RequestType.LOGIN, "soak" + i));
+                spectator.receive();
+                spectator.receive();
+                Thread reader = new Thread(() -> {
+                    try {
+                        while (true) {
+                            spectator.receive();
+                            received.incrementAndGet();
+                        }
+                    } catch (IOException ignored) {
+                    }
+                });
+                reader.setDaemon(true);
+                reader.start();
+            }
+
+            int owner = server.getBoard().getOwners().intern("soak");
+            PlaceColor[] colors = PlaceColor.values();
+            long step = Math.max(1, broadcasts / READINGS);
+
+            System.out.printf("%14s %14s %10s%n", "broadcasts", "received", "heap MB");
+            for (long sent = 1; sent <= broadcasts; ++sent) {
+                int cell = (int) (sent % (DIM * DIM));
+                server.tileUpdate(new PlaceTile(cell / DIM, cell % DIM, "", colors[(int) (sent % colors.length)]),
+                        owner);
+                while (sent * count - received.get() > (long) WINDOW * count) {
+                    Thread.sleep(1);
+                }
+                if (sent % step == 0) {
+                    System.gc();
+                    Runtime runtime = Runtime.getRuntime();
+                    long heap = (runtime.totalMemory() - runtime.freeMemory()) / (1024 * 1024);
+                    System.out.printf("%14d %14d %10d%n", sent, received.get(), heap);
+                }
+            }
+        } finally {
+            for (PlaceExchange spectator : spectators) {
+                try {
+                    spectator.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+        System.exit(0);
+    }
+}
@@ -0,0 +1,467 @@
+package place.bench;
+
+import place.PlaceColor;
+import place.PlaceOwners;
+import place.PlaceTile;
+import place.network.PlaceCodec;
+import place.network.PlaceProtocol;
+import place.network.PlaceRequest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * One client of a {@link LoadGenerator}, run by one of its event loops.  It
+ * speaks the binary protocol over a non-blocking channel, logs in and then
+ * either just watches or paints at random times.
+ *
+ * Frames are skimmed rather than decoded: only the ones a client cares
+ * about are looked at, and the rest are skipped by their length, so a crowd
+ * of spectators costs the generator little more than reading the bytes.  A
+ * painter remembers when it sent each change, and when a change of its own
+ * comes back it records how long that took.
+ */
+class SimulatedClient {
+    /** How big the read buffer starts */
+    private final static int READ_BUFFER = 8192;
+    /** How many unconfirmed changes a painter keeps track of */
+    private final static int PENDING = 64;
+
+    /** The name the client logs in with */
+    final String username;
+    /** Whether the client paints, rather than only watching */
+    final boolean painter;
+    /** The username as it appears on the wire */
+    private final byte[] name;
+    /** What the whole run has seen */
+    private final LoadGenerator.Stats stats;
+    /** Where the client paints */
+    private final Spread spread;
+    /** Changes a second, on average */
+    private final double rate;
+    /**
+     * Encodes what the client sends.  The login goes out before the server
+     * agrees a version, which is fine since it is the same in all of them;
+     * the codec is made again for the agreed version.
+     */
+    private PlaceCodec codec = new PlaceCodec(new PlaceOwners(), PlaceProtocol.VERSION);
+    /** Where frames are encoded */
+    private final ByteArrayOutputStream frames = new ByteArrayOutputStream();
+    /** Writes into the frame buffer */
+    private final DataOutputStream frameOut = new DataOutputStream(this.frames);
+
+    /** The connection */
+    private SocketChannel channel;
+    /** The connection's registration with the loop's selector */
+    private SelectionKey key;
+    /** Bytes read but not looked at yet */
+    private ByteBuffer in = ByteBuffer.allocate(READ_BUFFER);
+    /** Bytes the channel hasn't taken yet, or null */
+    private ByteBuffer out;
+    /** The protocol version the server agreed to */
+    private int version;
+    /** Whether the server's handshake has arrived */
+    private boolean greeted;
+    /** Whether the server has let the client in */
+    private boolean loggedIn;
+    /** Whether the client has been put on its loop's painting schedule */
+    private boolean scheduled;
+    /** Set once the connection is closed */
+    private boolean closed;
+    /** How much of the current frame is still to be skipped */
+    private int skip;
+    /** The id the server gave the client's name, once announced */
+    private int ownerId = -1;
+    /** When the client next paints, in {@link System#nanoTime()} terms */
+    long nextPaint;
+
+    /** The cell of each change not yet seen come back, oldest first */
+    private final int[] pendingCells = new int[PENDING];
+    /** The color of each change not yet seen come back */
+    private final byte[] pendingColors = new byte[PENDING];
+    /** When each change not yet seen come back was sent */
+    private final long[] pendingSent = new long[PENDING];
+    /** How many changes haven't been seen come back */
+    private int pendingCount;
+
+    /**
+     * Create a client.
+     *
+     * @param username the name it logs in with
+     * @param painter whether it paints
+     * @param stats what the whole run has seen
+     * @param spread where it paints
+     * @param rate changes a second, on average
+     */
+    SimulatedClient(String username, boolean painter, LoadGenerator.Stats stats, Spread spread, double rate) {
+        this.username = username;
+        this.painter = painter;
+        this.name = username.getBytes(StandardCharsets.UTF_8);
+        this.stats = stats;
+        this.spread = spread;
+        this.rate = rate;
+    }
+
+    /**
+     * Start connecting to the server.
+     *
+     * @param selector the loop's selector
+     * @param address the server
+     * @throws IOException if the connection can't be started
+     */
+    void connect(Selector selector, InetSocketAddress address) throws IOException {
+        this.channel = SocketChannel.open();
+        this.channel.configureBlocking(false);
+        this.channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        this.key = this.channel.register(selector, SelectionKey.OP_CONNECT, this);
+        if (this.channel.connect(address)) {
+            connected();
+        }
+    }
+
+    /**
+     * Finish connecting once the selector says the channel is ready.
+     */
+    void finishConnect() {
+        try {
+            if (this.channel.finishConnect()) {
+                connected();
+            }
+        } catch (IOException e) {
+            this.stats.failures.increment();
+            close();
+        }
+    }
+
+    /**
+     * Send the handshake and the login.
+     *
+     * @throws IOException if they can't be sent
+     */
+    private void connected() throws IOException {
+        this.key.interestOps(SelectionKey.OP_READ);
+        this.frameOut.writeInt(PlaceProtocol.MAGIC);
+        this.frameOut.writeByte(PlaceProtocol.VERSION);
+        this.codec.encode(new PlaceRequest<>(PlaceRequest.RequestType.LOGIN, this.username), this.frameOut);
+        send();
+    }
+
+    /**
+     * Read whatever has arrived and look at the frames that matter.
+     *
+     * @param now the time, in {@link System#nanoTime()} terms
+     */
+    void read(long now) {
+        try {
+            int read = this.channel.read(this.in);
+            if (read < 0) {
+                this.stats.disconnects.increment();
+                close();
+                return;
+            }
+            this.stats.bytes.add(read);
+            this.in.flip();
+            while (true) {
+                if (this.skip > 0) {
+                    int skipped = Math.min(this.skip, this.in.remaining());
+                    this.in.position(this.in.position() + skipped);
+                    this.skip -= skipped;
+                    if (this.skip > 0) {
+                        break;
+                    }
+                    continue;
+                }
+                if (!this.greeted) {
+                    if (this.in.remaining() < 5) {
+                        break;
+                    }
+                    if (this.in.getInt() != PlaceProtocol.MAGIC) {
+                        this.stats.failures.increment();
+                        close();
+                        return;
+                    }
+                    this.version = this.in.get() & 0xFF;
+                    this.codec = new PlaceCodec(new PlaceOwners(), this.version);
+                    this.greeted = true;
+                    continue;
+                }
+                if (this.in.remaining() < 5) {
+                    break;
+                }
+                int length = this.in.getInt(this.in.position());
+                int type = this.in.get(this.in.position() + 4) & 0xFF;
+                if (!wants(type)) {
+                    this.stats.frames.increment();
+                    this.in.position(this.in.position() + 5);
+                    this.skip = length - 1;
+                    continue;
+                }
+                if (this.in.remaining() < 4 + length) {
+                    if (this.in.capacity() < 4 + length) {
+                        grow(4 + length);
+                        return;
+                    }
+                    break;
+                }
+                int start = this.in.position() + 5;
+                this.stats.frames.increment();
+                frame(type, start, now);
+                this.in.position(start + length - 1);
+            }
+            this.in.compact();
+        } catch (IOException e) {
+            this.stats.disconnects.increment();
+            close();
+        }
+    }
+
+    /**
+     * Tells whether a frame is worth looking at.
+     *
+     * @param type the frame type
+     * @return true if it should be read, false to skip it
+     */
+    private boolean wants(int type) {
+        switch (type) {
+            case PlaceCodec.LOGIN_SUCCESS:
+            case PlaceCodec.ERROR:
+                return true;
+            case PlaceCodec.OWNER:
+            case PlaceCodec.TILE_CHANGED:
+            case PlaceCodec.TILES_CHANGED:
+                return this.painter;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Look at a frame that has been read whole.
+     *
+     * @param type the frame type
+     * @param start where its payload starts in the read buffer
+     * @param now the time, in {@link System#nanoTime()} terms
+     */
+    private void frame(int type, int start, long now) {
+        switch (type) {
+            case PlaceCodec.LOGIN_SUCCESS:
+                this.loggedIn = true;
+                this.stats.connected.increment();
+                if (this.painter) {
+                    this.nextPaint = now;
+                }
+                break;
+            case PlaceCodec.ERROR:
+                this.stats.errors.increment();
+                break;
+            case PlaceCodec.OWNER:
+                //an id followed by a modified UTF-8 name; names here are ASCII
+                int id = this.in.getInt(start);
+                int length = this.in.getShort(start + 4) & 0xFFFF;
+                if (length == this.name.length) {
+                    boolean same = true;
+                    for (int i = 0; i < length && same; ++i) {
+                        same = this.in.get(start + 6 + i) == this.name[i];
+                    }
+                    if (same) {
+                        this.ownerId = id;
+                    }
+                }
+                break;
+            case PlaceCodec.TILE_CHANGED:
+                tile(start, now);
+                break;
+            case PlaceCodec.TILES_CHANGED:
+                int count = this.in.getInt(start);
+                int record = this.version >= 3 ? PlaceCodec.SEQ_TILE_RECORD : PlaceCodec.TILE_RECORD;
+                for (int i = 0; i < count; ++i) {
+                    tile(start + 4 + i * record, now);
+                }
+                break;
+        }
+    }
+
+    /**
+     * Look at a tile record, and if it is one of this client's changes
+     * coming back, record how long it took.  Changes the server merged
+     * into a later one to the same tile never come back on their own.
+     *
+     * @param at where the record starts in the read buffer
+     * @param now the time, in {@link System#nanoTime()} terms
+     */
+    private void tile(int at, long now) {
+        if (this.ownerId < 0 || this.in.getInt(at + 9) != this.ownerId) {
+            return;
+        }
+        int cell = this.in.getInt(at) * this.spread.dim + this.in.getInt(at + 4);
+        byte color = this.in.get(at + 8);
+        for (int i = 0; i < this.pendingCount; ++i) {
+            if (this.pendingCells[i] == cell && this.pendingColors[i] == color) {
+                this.stats.confirmed.increment();
+                this.stats.latency((now - this.pendingSent[i]) / 1000);
+                //anything older on the same tile was merged into this one
+                int kept = 0;
+                for (int j = 0; j < this.pendingCount; ++j) {
+                    if (j == i || (j < i && this.pendingCells[j] == cell)) {
+                        if (j != i) {
+                            this.stats.coalesced.increment();
+                        }
+                        continue;
+                    }
+                    this.pendingCells[kept] = this.pendingCells[j];
+                    this.pendingColors[kept] = this.pendingColors[j];
+                    this.pendingSent[kept] = this.pendingSent[j];
+                    ++kept;
+                }
+                this.pendingCount = kept;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Paint a random tile and work out when to paint next.  Changes come at
+     * random, a {@link #rate} a second on average.
+     *
+     * @param now the time, in {@link System#nanoTime()} terms
+     * @param random the loop's random numbers
+     */
+    void paint(long now, Random random) {
+        int cell = this.spread.next(random);
+        int color = random.nextInt(PlaceColor.TOTAL_COLORS);
+        PlaceTile tile = new PlaceTile(cell / this.spread.dim, cell % this.spread.dim, "",
+                PlaceColor.values()[color]);
+        try {
+            this.codec.encode(new PlaceRequest<>(PlaceRequest.RequestType.CHANGE_TILE, tile), this.frameOut);
+            if (this.pendingCount == PENDING) {
+                //never came back; make room
+                this.stats.unconfirmed.increment();
+                System.arraycopy(this.pendingCells, 1, this.pendingCells, 0, PENDING - 1);
+                System.arraycopy(this.pendingColors, 1, this.pendingColors, 0, PENDING - 1);
+                System.arraycopy(this.pendingSent, 1, this.pendingSent, 0, PENDING - 1);
+                --this.pendingCount;
+            }
+            this.pendingCells[this.pendingCount] = cell;
+            this.pendingColors[this.pendingCount] = (byte) color;
+            this.pendingSent[this.pendingCount] = System.nanoTime();
+            ++this.pendingCount;
+            send();
+            this.stats.sent.increment();
+        } catch (IOException e) {
+            this.stats.disconnects.increment();
+            close();
+        }
+        this.nextPaint = now + (long) (-Math.log(1 - random.nextDouble()) / this.rate * 1e9);
+    }
+
+    /**
+     * Queue the encoded frames and write as much as the channel will take.
+     *
+     * @throws IOException if the write fails
+     */
+    private void send() throws IOException {
+        this.frameOut.flush();
+        if (this.out == null) {
+            this.out = ByteBuffer.wrap(this.frames.toByteArray());
+        } else {
+            ByteBuffer more = ByteBuffer.allocate(this.out.remaining() + this.frames.size());
+            more.put(this.out).put(this.frames.toByteArray()).flip();
+            this.out = more;
+        }
+        this.frames.reset();
+        flush();
+    }
+
+    /**
+     * Write as much of the queued bytes as the channel will take, and wait
+     * for it to drain if it won't take them all.
+     *
+     * @throws IOException if the write fails
+     */
+    void flush() throws IOException {
+        if (this.out == null || this.closed) {
+            return;
+        }
+        this.channel.write(this.out);
+        if (this.out.hasRemaining()) {
+            this.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        } else {
+            this.out = null;
+            this.key.interestOps(SelectionKey.OP_READ);
+        }
+    }
+
+    /**
+     * Make the read buffer big enough for a frame, keeping what's in it.
+     *
+     * @param size the size needed
+     */
+    private void grow(int size) {
+        ByteBuffer bigger = ByteBuffer.allocate(size);
+        bigger.put(this.in);
+        this.in = bigger;
+    }
+
+    /**
+     * Tells whether the client has just logged in as a painter and needs
+     * to go on the painting schedule.  It only says so once.
+     *
+     * @return true if it should be scheduled
+     */
+    boolean startsPainting() {
+        if (this.painter && this.loggedIn && !this.scheduled && !this.closed) {
+            this.scheduled = true;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Tells whether the connection is closed.
+     *
+     * @return true if it is
+     */
+    boolean isClosed() {
+        return this.closed;
+    }
+
+    /**
+     * Get how many of the client's changes haven't come back.
+     *
+     * @return the count
+     */
+    int getPending() {
+        return this.pendingCount;
+    }
+
+    /**
+     * Close the connection.
+     */
+    void close() {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        if (this.loggedIn) {
+            this.stats.connected.decrement();
+        }
+        if (this.key != null) {
+            this.key.cancel();
+        }
+        try {
+            if (this.channel != null) {
+                this.channel.close();
+            }
+        } catch (IOException ignored) {
+        }
+    }
+}
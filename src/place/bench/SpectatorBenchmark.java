@@ -0,0 +1,101 @@
+package place.bench;
+
+import place.PlaceException;
+import place.network.PlaceExchange;
+import place.network.PlaceProtocol;
+import place.network.PlaceRequest;
+import place.server.PlaceServer;
+import place.server.PlaceServerConfig;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares server engines holding a crowd of idle spectators.  For each
+ * engine an in-process server is started, the given number of clients log
+ * in and download the board, and then they just sit there.  The time it
+ * took, the number of platform threads alive and the heap in use are
+ * printed side by side.
+ *
+ * $ java place.bench.SpectatorBenchmark clients DIM engine...
+ *
+ * e.g. <code>java place.bench.SpectatorBenchmark 50000 64 threads virtual</code>.
+ * Every client is a socket in this process as well, so the open file limit
+ * has to allow twice the number of clients.
+ */
+public class SpectatorBenchmark {
+
+    /**
+     * Run the benchmark.
+     *
+     * @param args the number of clients, the board dimension, then engines
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.err.println("$ java place.bench.SpectatorBenchmark clients DIM engine...");
+            System.exit(1);
+        }
+        int clients = Integer.parseInt(args[0]);
+        int dim = Integer.parseInt(args[1]);
+
+        System.out.printf("%-10s %10s %12s %10s %10s%n",
+                "engine", "clients", "login ms", "threads", "heap MB");
+        for (int i = 2; i < args.length; ++i) {
+            try {
+                run(args[i], clients, dim);
+            } catch (PlaceException e) {
+                System.out.printf("%-10s %s%n", args[i], e.getMessage());
+            }
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Connect the spectators to one engine and report.
+     *
+     * @param engine the engine name, as given to --engine
+     * @param clients how many spectators
+     * @param dim the board dimension
+     */
+    private static void run(String engine, int clients, int dim) throws PlaceException, InterruptedException {
+        PlaceServerConfig config = new PlaceServerConfig(0, dim);
+        config.set("engine", engine);
+        List<PlaceExchange> spectators = new ArrayList<>(clients);
+
+        try (PlaceServer server = PlaceServer.start(config)) {
+            long start = System.nanoTime();
+            int connected = 0;
+            for (int i = 0; i < clients; ++i) {
+                try {
+                    PlaceExchange spectator = PlaceProtocol.connect("localhost", server.getPort());
+                    spectators.add(spectator);
+                    spectator.send(new PlaceRequest<>(PlaceRequest.RequestType.LOGIN, "spectator" + i));
+                    spectator.receive();
+                    spectator.receive();
+                    ++connected;
+                } catch (IOException e) {
+                    System.err.println(engine + ": stopped at " + i + " clients: " + e.getMessage());
+                    break;
+                }
+            }
+            long elapsed = (System.nanoTime() - start) / 1_000_000;
+
+            //let the server settle before measuring it
+            Thread.sleep(1000);
+            System.gc();
+            Runtime runtime = Runtime.getRuntime();
+            long heap = (runtime.totalMemory() - runtime.freeMemory()) / (1024 * 1024);
+            int threads = Thread.getAllStackTraces().size();
+
+            System.out.printf("%-10s %10d %12d %10d %10d%n", engine, connected, elapsed, threads, heap);
+        } finally {
+            for (PlaceExchange spectator : spectators) {
+                try {
+                    spectator.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package place.bench;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+/**
+ * Where on the board simulated painters put their tiles.  Cells are
+ * numbered row major.
+ */
+abstract class Spread {
+    /** The share of hotspot changes that land in the hotspot */
+    private final static double HOT_SHARE = 0.9;
+    /** The hotspot's side, as a share of the board's */
+    private final static int HOT_FRACTION = 8;
+
+    /** The square dimension of the board */
+    final int dim;
+
+    /**
+     * Create a spread over a board.
+     *
+     * @param dim the square dimension of the board
+     */
+    Spread(int dim) {
+        this.dim = dim;
+    }
+
+    /**
+     * Pick the next cell to paint.
+     *
+     * @param random the random numbers to use
+     * @return the cell
+     */
+    abstract int next(Random random);
+
+    /**
+     * Make a spread by name.
+     *
+     * @param name uniform, hotspot or zipf
+     * @param dim the square dimension of the board
+     * @param exponent the Zipf exponent, for zipf
+     * @return the spread
+     * @throws IllegalArgumentException if the name is unknown
+     */
+    static Spread of(String name, int dim, double exponent) {
+        switch (name) {
+            case "uniform":
+                return new Uniform(dim);
+            case "hotspot":
+                return new Hotspot(dim);
+            case "zipf":
+                return new Zipf(dim, exponent);
+            default:
+                throw new IllegalArgumentException("Unknown spread " + name);
+        }
+    }
+
+    /**
+     * Every cell as likely as any other.
+     */
+    private static class Uniform extends Spread {
+        Uniform(int dim) {
+            super(dim);
+        }
+
+        @Override
+        int next(Random random) {
+            return random.nextInt(this.dim * this.dim);
+        }
+    }
+
+    /**
+     * Most changes in a small square in the middle of the board, like a
+     * crowd fighting over one picture, and the rest anywhere.
+     */
+    private static class Hotspot extends Spread {
+        /** The hotspot's side */
+        private final int side;
+        /** The hotspot's top row and left column */
+        private final int corner;
+
+        Hotspot(int dim) {
+            super(dim);
+            this.side = Math.max(1, dim / HOT_FRACTION);
+            this.corner = (dim - this.side) / 2;
+        }
+
+        @Override
+        int next(Random random) {
+            if (random.nextDouble() >= HOT_SHARE) {
+                return random.nextInt(this.dim * this.dim);
+            }
+            int row = this.corner + random.nextInt(this.side);
+            int col = this.corner + random.nextInt(this.side);
+            return row * this.dim + col;
+        }
+    }
+
+    /**
+     * Cells ranked by popularity, the k'th most popular painted in
+     * proportion to 1/k^exponent.  The ranks are scattered over the board
+     * so the popular cells aren't all in the first row.
+     *
+     * Ranks are drawn by rejection-inversion (Hormann and Derflinger,
+     * 1996), which takes constant time and no table however many cells
+     * there are.
+     */
+    private static class Zipf extends Spread {
+        /** How many cells */
+        private final int cells;
+        /** The exponent */
+        private final double exponent;
+        /** Moves rank k to cell (k * scatter) mod cells; shares no factor with cells */
+        private final long scatter;
+        /** The bounds of the area the draws come from */
+        private final double hIntegralX1;
+        private final double hIntegralN;
+        /** Draws this close to a whole rank are taken without a second look */
+        private final double squeeze;
+
+        Zipf(int dim, double exponent) {
+            super(dim);
+            this.cells = dim * dim;
+            this.exponent = exponent;
+            long scatter = Math.max(1, (long) (this.cells * 0.6180339887));
+            while (BigInteger.valueOf(scatter).gcd(BigInteger.valueOf(this.cells)).intValue() != 1) {
+                ++scatter;
+            }
+            this.scatter = scatter;
+            this.hIntegralX1 = hIntegral(1.5) - 1;
+            this.hIntegralN = hIntegral(this.cells + 0.5);
+            this.squeeze = 2 - hIntegralInverse(hIntegral(2.5) - h(2));
+        }
+
+        @Override
+        int next(Random random) {
+            return (int) ((rank(random) - 1) * this.scatter % this.cells);
+        }
+
+        /**
+         * Draw a rank.
+         *
+         * @param random the random numbers to use
+         * @return the rank, 1 for the most popular
+         */
+        private long rank(Random random) {
+            while (true) {
+                double u = this.hIntegralN + random.nextDouble() * (this.hIntegralX1 - this.hIntegralN);
+                double x = hIntegralInverse(u);
+                long k = Math.min(Math.max((long) (x + 0.5), 1), this.cells);
+                if (k - x <= this.squeeze || u >= hIntegral(k + 0.5) - h(k)) {
+                    return k;
+                }
+            }
+        }
+
+        /** The integral of {@link #h}, shifted so it works for any exponent */
+        private double hIntegral(double x) {
+            double logX = Math.log(x);
+            return expm1OverX((1 - this.exponent) * logX) * logX;
+        }
+
+        /** The unnormalized density, x^-exponent */
+        private double h(double x) {
+            return Math.exp(-this.exponent * Math.log(x));
+        }
+
+        /** The inverse of {@link #hIntegral} */
+        private double hIntegralInverse(double x) {
+            double t = Math.max(x * (1 - this.exponent), -1);
+            return Math.exp(log1pOverX(t) * x);
+        }
+
+        /** log(1 + x) / x, accurate near 0 */
+        private static double log1pOverX(double x) {
+            return Math.abs(x) > 1e-8 ? Math.log1p(x) / x : 1 - x * (0.5 - x * (1.0 / 3 - 0.25 * x));
+        }
+
+        /** (e^x - 1) / x, accurate near 0 */
+        private static double expm1OverX(double x) {
+            return Math.abs(x) > 1e-8 ? Math.expm1(x) / x : 1 + x * 0.5 * (1 + x / 3 * (1 + 0.25 * x));
+        }
+    }
+}
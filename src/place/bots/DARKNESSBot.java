@@ -2,12 +2,11 @@ package place.bots;
 
 import place.PlaceColor;
 import place.PlaceTile;
+import place.network.PlaceExchange;
+import place.network.PlaceProtocol;
 import place.network.PlaceRequest;
 
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.net.Socket;
 
 import static place.network.PlaceRequest.RequestType.*;
 /*
@@ -57,15 +56,15 @@ Y        `=--~                  _..-'  ~`-.._                  ~`-'         |
  */
 class DARKNESSBot extends Thread{
 
-    private ObjectOutputStream out;
+    private PlaceExchange out;
     private String name;
 
     /**
      * Constructor for the EraseBot. Can have a theoretical infinite amount of names.
-     * @param o objectoutputstream
+     * @param o the connection to the server
      * @param n string
      */
-    private DARKNESSBot(ObjectOutputStream o, String n) {
+    private DARKNESSBot(PlaceExchange o, String n) {
         out = o;
         //Appending a number to the end of the name so almost 0 conflict when creating multiple
         name = n+(Math.random()*100);
@@ -89,13 +88,12 @@ class DARKNESSBot extends Thread{
 
     /**
      * Method the sends the information to the board so it can be placed and then flushed
-     * @param out objectoutputstream
+     * @param out the connection to the server
      * @param placeRequest placeRequest
      */
-    private static void sendToBoard(ObjectOutputStream out, PlaceRequest<java.io.Serializable> placeRequest) {
+    private static void sendToBoard(PlaceExchange out, PlaceRequest<java.io.Serializable> placeRequest) {
         try {
-            out.writeUnshared(placeRequest);
-            out.flush();
+            out.send(placeRequest);
         } catch(IOException e) {
             System.out.println(e.getMessage());
         }
@@ -111,23 +109,21 @@ class DARKNESSBot extends Thread{
             System.exit(1);
         }
         System.out.println("Connection success to place.");
-        try(Socket con = new Socket(args[0],Integer.parseInt(args[1]));
-            ObjectOutputStream out = new ObjectOutputStream(con.getOutputStream());
-            ObjectInputStream in = new ObjectInputStream(con.getInputStream())){
+        try(PlaceExchange out = PlaceProtocol.connect(args[0],Integer.parseInt(args[1]))){
 
             String name = "DARKNESS"+(Math.random()*100);
             sendToBoard(out,new PlaceRequest<>(LOGIN,name));
 
             DARKNESSBot bot = new DARKNESSBot(out,name);
             while(true) {
-                if(((PlaceRequest)in.readUnshared()).getType().equals(TILE_CHANGED)) {
-                    PlaceTile tile = (PlaceTile)((PlaceRequest)in.readUnshared()).getData();
+                PlaceRequest<?> request = out.receive();
+                for(PlaceTile tile : request.getTiles()) {
                     int col = tile.getCol();
                     int row = tile.getRow();
                     bot.addToBoard(row,col);
                 }
             }
-        } catch (IOException | ClassNotFoundException ignored) {
+        } catch (IOException ignored) {
         }
     }
 
@@ -2,12 +2,11 @@ package place.bots;
 
 import place.PlaceColor;
 import place.PlaceTile;
+import place.network.PlaceExchange;
+import place.network.PlaceProtocol;
 import place.network.PlaceRequest;
 
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.net.Socket;
 
 import static place.network.PlaceRequest.RequestType.*;
 /*
@@ -43,16 +42,16 @@ import static place.network.PlaceRequest.RequestType.*;
  */
 class MagicMirrorBot extends Thread{
 
-    private ObjectOutputStream out;
+    private PlaceExchange out;
     private String name;
 
     /**
      * Constructor for the MagicMirrorBot that have an
      * objectoutputstream and a string for the name
-     * @param o ObjOutS
+     * @param o the connection to the server
      * @param n name
      */
-    private MagicMirrorBot(ObjectOutputStream o, String n) {
+    private MagicMirrorBot(PlaceExchange o, String n) {
         out = o;
         name = n+(Math.random()*100);
     }
@@ -69,13 +68,12 @@ class MagicMirrorBot extends Thread{
 
     /**
      * Method that sends the information to the board so it can get written.
-     * @param out ObjOutS
+     * @param out the connection to the server
      * @param placeRequest Place
      */
-    private static void sendToBoard(ObjectOutputStream out, PlaceRequest<java.io.Serializable> placeRequest) {
+    private static void sendToBoard(PlaceExchange out, PlaceRequest<java.io.Serializable> placeRequest) {
         try {
-            out.writeUnshared(placeRequest);
-            out.flush();
+            out.send(placeRequest);
         } catch(IOException ioe) {
             System.out.println(ioe.getMessage());
         }
@@ -90,9 +88,7 @@ class MagicMirrorBot extends Thread{
             System.err.println("usage $ java MagicMirrorBot host port");
             System.exit(1);
         }
-        try(Socket con = new Socket(args[0],Integer.parseInt(args[1]));
-            ObjectOutputStream out = new ObjectOutputStream(con.getOutputStream());
-            ObjectInputStream in = new ObjectInputStream(con.getInputStream())) {
+        try(PlaceExchange out = PlaceProtocol.connect(args[0],Integer.parseInt(args[1]))) {
 
             String name = "OCEAN"+(Math.random()*100);
             sendToBoard(out,new PlaceRequest<>(LOGIN,name));
@@ -100,9 +96,8 @@ class MagicMirrorBot extends Thread{
             MagicMirrorBot magicMirrorBot = new MagicMirrorBot(out,name);
             while(true) {
                 //while running if the tile has been changed, grab its row and col
-                if(((PlaceRequest)in.readUnshared()).getType().equals(TILE_CHANGED)) {
-                    //grab the the tile
-                    PlaceTile tile = (PlaceTile)((PlaceRequest)in.readUnshared()).getData();
+                PlaceRequest<?> request = out.receive();
+                for(PlaceTile tile : request.getTiles()) {
                     int row, col;
                     row = tile.getCol();
                     col = tile.getRow();
@@ -111,7 +106,7 @@ class MagicMirrorBot extends Thread{
                     magicMirrorBot.addToBoard(row,col,color);
                 }
             }
-        } catch (IOException | ClassNotFoundException ignored) {
+        } catch (IOException ignored) {
         }
     }
 }
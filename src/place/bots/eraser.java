@@ -3,12 +3,11 @@ package place.bots;
 import place.PlaceColor;
 import place.PlaceException;
 import place.PlaceTile;
+import place.network.PlaceExchange;
+import place.network.PlaceProtocol;
 import place.network.PlaceRequest;
 
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.net.Socket;
 import java.util.ArrayList;
 
 /**
@@ -18,14 +17,8 @@ import java.util.ArrayList;
  */
 public class eraser extends Thread
 {
-    /**New socket serverConn*/
-    private Socket serverConn;
-
-    /**User In*/
-    private ObjectInputStream in;
-
-    /**User Out*/
-    private ObjectOutputStream out;
+    /**The connection to the server*/
+    private PlaceExchange serverConn;
     String hostName, username;
     int row, col,port,color;
 
@@ -73,20 +66,9 @@ public class eraser extends Thread
     @Override
     public void run()
     {
-        //new socket server connection
-        try {
-            this.serverConn = new Socket(hostName, port);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        //outputs the serverconn
+        //new server connection
         try {
-            this.out = new ObjectOutputStream(serverConn.getOutputStream());
-            out.flush();
-
-            //inputs serverconn info
-            this.in = new ObjectInputStream(serverConn.getInputStream());
+            this.serverConn = PlaceProtocol.connect(hostName, port);
             execute();
             this.close();
 
@@ -97,8 +79,8 @@ public class eraser extends Thread
     }
     public synchronized void execute() {
         try {
-            out.writeUnshared(new PlaceRequest<>(PlaceRequest.RequestType.LOGIN, username));
-            PlaceRequest<?> response = (PlaceRequest<?>) in.readUnshared();
+            serverConn.send(new PlaceRequest<>(PlaceRequest.RequestType.LOGIN, username));
+            PlaceRequest<?> response = serverConn.receive();
 
             //Attempts to log onto the server
             switch (response.getType()) {
@@ -121,8 +103,7 @@ public class eraser extends Thread
             while(true) {
                 while (col < 10) {
                     while (row < 10) {
-                        this.out.writeUnshared(new PlaceRequest<>(PlaceRequest.RequestType.CHANGE_TILE, new PlaceTile(col, row, username, PlaceColor.values()[this.color], System.currentTimeMillis())));
-                        out.flush();
+                        this.serverConn.send(new PlaceRequest<>(PlaceRequest.RequestType.CHANGE_TILE, new PlaceTile(col, row, username, PlaceColor.values()[this.color], System.currentTimeMillis())));
                         row++;
                     }
                     row = 0;
@@ -130,7 +111,7 @@ public class eraser extends Thread
                 }
                 col = 0;
             }
-        } catch (IOException | ClassNotFoundException | PlaceException e) {
+        } catch (IOException | PlaceException e) {
             e.printStackTrace();
         }
     }
@@ -140,8 +121,6 @@ public class eraser extends Thread
      */
     public void close() throws IOException {
         this.serverConn.close();
-        this.in.close();
-        this.out.close();
     }
 
     private void displayErrorMessage(String s) {
@@ -0,0 +1,146 @@
+package place.client.gui;
+
+import place.PlaceBoard;
+import place.PlaceColor;
+
+/**
+ * The colors of a board at every level of detail, for drawing it zoomed
+ * out without reading every tile.  Level 0 is the board itself, a color
+ * number a tile; each level above it is half as wide, and each of its
+ * pixels stands for a two by two block of the level below, so a pixel of
+ * level n covers a block of 2^n by 2^n tiles.  The top level is a single
+ * pixel.
+ *
+ * A pixel's color is the one most common among the four below it, the
+ * first of them on a tie.  That is the dominant color of the block it
+ * covers in all but close cases, and it lets a changed tile be carried up
+ * through the levels by looking at four pixels a level, so the levels are
+ * kept up to date as tiles change instead of being made again.
+ *
+ * Only used on the JavaFX application thread.
+ */
+class BoardMipmap {
+    /** The square dimension of each level, level 0 first */
+    private final int[] dims;
+    /** The color numbers of each level, row major */
+    private final byte[][] levels;
+
+    /**
+     * Make every level of a board.
+     *
+     * @param board the board
+     */
+    BoardMipmap(PlaceBoard board) {
+        int count = 1;
+        for (int dim = board.DIM; dim > 1; dim = (dim + 1) / 2) {
+            ++count;
+        }
+        this.dims = new int[count];
+        this.levels = new byte[count][];
+
+        int dim = board.DIM;
+        byte[] base = new byte[dim * dim];
+        for (int row = 0; row < dim; ++row) {
+            for (int col = 0; col < dim; ++col) {
+                base[row * dim + col] = (byte) board.getColor(row, col).getNumber();
+            }
+        }
+        this.dims[0] = dim;
+        this.levels[0] = base;
+
+        for (int level = 1; level < count; ++level) {
+            this.dims[level] = (this.dims[level - 1] + 1) / 2;
+            this.levels[level] = new byte[this.dims[level] * this.dims[level]];
+            for (int row = 0; row < this.dims[level]; ++row) {
+                for (int col = 0; col < this.dims[level]; ++col) {
+                    this.levels[level][row * this.dims[level] + col] = this.reduce(level, row, col);
+                }
+            }
+        }
+    }
+
+    /**
+     * How many levels there are, the board itself included.
+     *
+     * @return the number of levels
+     */
+    int getLevels() {
+        return this.levels.length;
+    }
+
+    /**
+     * Get the square dimension of a level.
+     *
+     * @param level the level, 0 for the board itself
+     * @return the dimension
+     */
+    int getDim(int level) {
+        return this.dims[level];
+    }
+
+    /**
+     * Get the color numbers of a level, row major.  They are the levels'
+     * own, so they must not be changed and they change as tiles do.
+     *
+     * @param level the level, 0 for the board itself
+     * @return the color numbers
+     */
+    byte[] getLevel(int level) {
+        return this.levels[level];
+    }
+
+    /**
+     * Change a tile and carry the change up through the levels, stopping at
+     * the first level it makes no difference to.
+     *
+     * @param row the tile's row
+     * @param col the tile's column
+     * @param color its new color
+     */
+    void set(int row, int col, PlaceColor color) {
+        byte number = (byte) color.getNumber();
+        for (int level = 0; level < this.levels.length; ++level) {
+            int index = row * this.dims[level] + col;
+            if (this.levels[level][index] == number) {
+                return;
+            }
+            this.levels[level][index] = number;
+            if (level + 1 < this.levels.length) {
+                row >>= 1;
+                col >>= 1;
+                number = this.reduce(level + 1, row, col);
+            }
+        }
+    }
+
+    /**
+     * Work out the color of a pixel from the four below it.
+     *
+     * @param level the pixel's level, at least 1
+     * @param row the pixel's row
+     * @param col the pixel's column
+     * @return its color number
+     */
+    private byte reduce(int level, int row, int col) {
+        int dim = this.dims[level - 1];
+        byte[] below = this.levels[level - 1];
+        int top = row * 2;
+        int left = col * 2;
+        //a level with an odd dimension has blocks on its edges with fewer than four
+        boolean right = left + 1 < dim;
+        boolean bottom = top + 1 < dim;
+        int a = below[top * dim + left];
+        int b = right ? below[top * dim + left + 1] : -1;
+        int c = bottom ? below[(top + 1) * dim + left] : -1;
+        int d = right && bottom ? below[(top + 1) * dim + left + 1] : -1;
+
+        //a color the last one shares is counted with the first of the three
+        int countA = 1 + (a == b ? 1 : 0) + (a == c ? 1 : 0) + (a == d ? 1 : 0);
+        int countB = b < 0 ? 0 : 1 + (b == c ? 1 : 0) + (b == d ? 1 : 0);
+        int countC = c < 0 ? 0 : 1 + (c == d ? 1 : 0);
+        if (countA >= countB && countA >= countC) {
+            return (byte) a;
+        }
+        return (byte) (countB >= countC ? b : c);
+    }
+}
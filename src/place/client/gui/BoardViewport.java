@@ -0,0 +1,272 @@
+package place.client.gui;
+
+import javafx.scene.canvas.Canvas;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import place.PlaceBoard;
+import place.PlaceColor;
+import place.PlaceRegion;
+
+import java.util.Arrays;
+
+/**
+ * Draws the part of the board that is in view, at any zoom, on a canvas
+ * the size of the view.  Zoomed in, each tile in view takes a square of
+ * screen pixels; zoomed out, each screen pixel takes a block of tiles and
+ * shows its color from a {@link BoardMipmap} level, so it reads one pixel
+ * of that level rather than every tile in the block.  Either way drawing
+ * the view costs a lookup a screen pixel, however big the board is.
+ *
+ * Changed tiles only mark the view as needing to be drawn if they are in
+ * it, and it is drawn at most once a frame, by {@link #render()}.  Which
+ * tile the mouse is over is worked out from where it is.
+ *
+ * Only used on the JavaFX application thread.
+ */
+class BoardViewport {
+    /** Each color as a pixel, by color number */
+    private final static int[] ARGB = new int[PlaceColor.TOTAL_COLORS];
+    /** The pixels around the board, when it doesn't fill the view */
+    private final static int BACKGROUND = 0xFF404040;
+
+    static {
+        for (PlaceColor color : PlaceColor.values()) {
+            ARGB[color.getNumber()] = 0xFF000000 | color.getRed() << 16 | color.getGreen() << 8 | color.getBlue();
+        }
+    }
+
+    /** The square dimension of the board */
+    private final int dim;
+    /** The width of the view, in screen pixels */
+    private final int width;
+    /** The height of the view, in screen pixels */
+    private final int height;
+    /** The most screen pixels a tile may take on a side */
+    private final double maxScale;
+    /** The fewest screen pixels a tile may take on a side, which fits the whole board in view */
+    private final double minScale;
+    /** The board at every level of detail */
+    private BoardMipmap mipmap;
+    /** What the view shows */
+    private final Canvas canvas;
+    /** The view's pixels, drawn onto the canvas */
+    private final WritableImage image;
+    /** The view's pixels as they are worked out, row major */
+    private final int[] pixels;
+    /** The level column each screen column shows, -1 for none; made again every draw */
+    private final int[] columns;
+    /** How many screen pixels a tile takes on a side */
+    private double scale;
+    /** The board column at the left edge of the view, in tiles */
+    private double left;
+    /** The board row at the top edge of the view, in tiles */
+    private double top;
+    /** true if the view has to be drawn again */
+    private boolean dirty = true;
+
+    /**
+     * Create a view of a board, zoomed out to show all of it.
+     *
+     * @param board the board
+     * @param width the width of the view, in screen pixels
+     * @param height the height of the view, in screen pixels
+     * @param maxScale the most screen pixels a tile may take on a side
+     */
+    BoardViewport(PlaceBoard board, int width, int height, double maxScale) {
+        this.dim = board.DIM;
+        this.width = width;
+        this.height = height;
+        this.maxScale = maxScale;
+        this.minScale = Math.min(maxScale, (double) Math.min(width, height) / this.dim);
+        this.mipmap = new BoardMipmap(board);
+        this.canvas = new Canvas(width, height);
+        this.canvas.getGraphicsContext2D().setImageSmoothing(false);
+        this.image = new WritableImage(width, height);
+        this.pixels = new int[width * height];
+        this.columns = new int[width];
+        this.fit();
+    }
+
+    /**
+     * Get the node that shows the board.
+     *
+     * @return the node
+     */
+    Canvas getView() {
+        return this.canvas;
+    }
+
+    /**
+     * Get the square dimension of the board this view is for.
+     *
+     * @return the dimension
+     */
+    int getDim() {
+        return this.dim;
+    }
+
+    /**
+     * Get the tiles in view, even those only partly shown.
+     *
+     * @return the region in view, on the board
+     */
+    PlaceRegion getVisible() {
+        int top = (int) Math.floor(this.top);
+        int left = (int) Math.floor(this.left);
+        int bottom = (int) Math.ceil(this.top + this.height / this.scale);
+        int right = (int) Math.ceil(this.left + this.width / this.scale);
+        return new PlaceRegion(top, left, bottom - top, right - left).clip(this.dim);
+    }
+
+    /**
+     * Take a whole board in place of the one shown, keeping the zoom.
+     *
+     * @param board the board, the same size as the view's
+     */
+    void draw(PlaceBoard board) {
+        this.mipmap = new BoardMipmap(board);
+        this.dirty = true;
+    }
+
+    /**
+     * Change one tile.
+     *
+     * @param row the tile's row
+     * @param col the tile's column
+     * @param color its color
+     */
+    void draw(int row, int col, PlaceColor color) {
+        this.mipmap.set(row, col, color);
+        //a tile out of view can't change what is shown
+        if (col + 1 > this.left && col < this.left + this.width / this.scale
+                && row + 1 > this.top && row < this.top + this.height / this.scale) {
+            this.dirty = true;
+        }
+    }
+
+    /**
+     * Zoom out to show the whole board, in the middle of the view.
+     */
+    void fit() {
+        this.scale = this.minScale;
+        this.left = (this.dim - this.width / this.scale) / 2;
+        this.top = (this.dim - this.height / this.scale) / 2;
+        this.dirty = true;
+    }
+
+    /**
+     * Zoom in or out, keeping the tile under a point of the view where it
+     * is.
+     *
+     * @param factor how many times bigger tiles should be; less than 1 zooms out
+     * @param x the point's x, in the view's coordinates
+     * @param y the point's y, in the view's coordinates
+     */
+    void zoom(double factor, double x, double y) {
+        double scale = Math.max(this.minScale, Math.min(this.maxScale, this.scale * factor));
+        if (scale == this.scale) {
+            return;
+        }
+        double col = this.left + x / this.scale;
+        double row = this.top + y / this.scale;
+        this.scale = scale;
+        this.left = col - x / scale;
+        this.top = row - y / scale;
+        this.keepInView();
+    }
+
+    /**
+     * Move the board across the view.
+     *
+     * @param dx how far to move it right, in screen pixels
+     * @param dy how far to move it down, in screen pixels
+     */
+    void pan(double dx, double dy) {
+        this.left -= dx / this.scale;
+        this.top -= dy / this.scale;
+        this.keepInView();
+    }
+
+    /**
+     * Keep the board from being moved out of view.  A board narrower than
+     * the view stays in its middle; a wider one can't leave a gap at
+     * either edge.
+     */
+    private void keepInView() {
+        this.left = this.clamp(this.left, this.width / this.scale);
+        this.top = this.clamp(this.top, this.height / this.scale);
+        this.dirty = true;
+    }
+
+    /**
+     * Keep one edge of the view on the board.
+     *
+     * @param edge the board row or column at the view's edge
+     * @param span how many tiles the view spans that way
+     * @return the edge, moved if need be
+     */
+    private double clamp(double edge, double span) {
+        if (span >= this.dim) {
+            return (this.dim - span) / 2;
+        }
+        return Math.max(0, Math.min(this.dim - span, edge));
+    }
+
+    /**
+     * Draw the view if anything in it changed since it was last drawn.
+     * Each screen pixel is looked up in the level of detail whose pixels are
+     * as big as a screen pixel or the nearest smaller, so no more is read
+     * than is shown.
+     */
+    void render() {
+        if (!this.dirty) {
+            return;
+        }
+        this.dirty = false;
+
+        //how many levels up a screen pixel's worth of tiles is
+        int level = 0;
+        while (level + 1 < this.mipmap.getLevels() && (1 << (level + 1)) * this.scale <= 1) {
+            ++level;
+        }
+        int levelDim = this.mipmap.getDim(level);
+        byte[] colors = this.mipmap.getLevel(level);
+
+        for (int x = 0; x < this.width; ++x) {
+            double col = this.left + (x + 0.5) / this.scale;
+            this.columns[x] = col < 0 || col >= this.dim ? -1 : (int) col >> level;
+        }
+        for (int y = 0; y < this.height; ++y) {
+            double row = this.top + (y + 0.5) / this.scale;
+            int offset = y * this.width;
+            if (row < 0 || row >= this.dim) {
+                Arrays.fill(this.pixels, offset, offset + this.width, BACKGROUND);
+                continue;
+            }
+            int start = ((int) row >> level) * levelDim;
+            for (int x = 0; x < this.width; ++x) {
+                int column = this.columns[x];
+                this.pixels[offset + x] = column < 0 ? BACKGROUND : ARGB[colors[start + column]];
+            }
+        }
+        this.image.getPixelWriter().setPixels(0, 0, this.width, this.height, PixelFormat.getIntArgbInstance(),
+                this.pixels, 0, this.width);
+        this.canvas.getGraphicsContext2D().drawImage(this.image, 0, 0, this.width, this.height);
+    }
+
+    /**
+     * Work out which tile is under a point of the view.
+     *
+     * @param x the point's x, in the view's coordinates
+     * @param y the point's y, in the view's coordinates
+     * @return the tile's row major index, or -1 if the point is off the board
+     */
+    int tileAt(double x, double y) {
+        double row = Math.floor(this.top + y / this.scale);
+        double col = Math.floor(this.left + x / this.scale);
+        if (row < 0 || row >= this.dim || col < 0 || col >= this.dim) {
+            return -1;
+        }
+        return (int) row * this.dim + (int) col;
+    }
+}
@@ -1,10 +1,12 @@
 package place.client.gui;
 
+import javafx.animation.AnimationTimer;
 import javafx.application.Application;
-import javafx.application.Platform;
 import javafx.event.EventHandler;
+import javafx.geometry.Pos;
 import javafx.scene.Scene;
-import javafx.scene.control.Tooltip;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.control.Label;
 import javafx.scene.input.MouseEvent;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.GridPane;
@@ -20,16 +22,18 @@ import javafx.scene.text.FontWeight;
 import javafx.scene.text.Text;
 import javafx.stage.Stage;
 import place.PlaceBoardObservable;
+import place.PlaceChanges;
 import place.PlaceColor;
 import place.PlaceException;
+import place.PlaceRegion;
 import place.PlaceTile;
 import place.network.NetworkClient;
 
 import java.io.IOException;
-import java.util.Calendar;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.List;
-import java.util.Observable;
-import java.util.Observer;
 
 //kminu
 /**
@@ -38,15 +42,43 @@ import java.util.Observer;
  * The users of this application will be able to select a color based on mouse input
  * and then click onto a spot on the grid that pops up to draw a color based on
  * personal preference.
+ *
+ * $ java PlaceGUI host port username [--render=image|grid]
+ *
+ * The board is drawn by default in a view that starts zoomed out to show
+ * all of it, which works for boards of any size.  Scrolling zooms in and
+ * out around the mouse and dragging moves the board; clicking without
+ * dragging paints a tile.  Once the view stops moving the server is asked
+ * to send only the changes in and around it.  --render=grid draws each
+ * tile as a node of its own instead, which is only practical for small
+ * boards, and hears about the whole board.  Either way one
+ * inspector over the board shows where the tile under the mouse is, who
+ * placed it and when.
  * @author Miguel Rosario
  * @author Joey Saltalamacchia
  * @author Shrif Rai
  */
-public class PlaceGUI extends Application implements Observer/*Observer<ClientModel, PlaceTile>*/ {
+public class PlaceGUI extends Application {
 
-    /**the size of one side of a tile*/
+    /**the size of one side of a tile, and the furthest the view zooms in*/
     private final int TILE_SIZE = 64;
 
+    /**the screen pixels the view of the board takes on a side*/
+    private final int BOARD_SIZE = 768;
+
+    /**how many times bigger tiles get for each step of the mouse wheel*/
+    private final double ZOOM_STEP = 1.25;
+
+    /**how long the mouse rests on a tile before the server is asked about it, in nanoseconds*/
+    private final long ASK_DELAY = 250_000_000L;
+
+    /**how long the view rests before the server is asked for the changes around it, in nanoseconds*/
+    private final long SUBSCRIBE_DELAY = 500_000_000L;
+
+    /**how the inspector shows when a tile was placed; it can't change, so it is made once*/
+    private final static DateTimeFormatter TIME_FORMAT =
+            DateTimeFormatter.ofPattern("M/d/yyyy HH:mm:ss").withZone(ZoneId.systemDefault());
+
 
     /**Grabs the username of the player*/
     private String username;
@@ -57,9 +89,51 @@ public class PlaceGUI extends Application implements Observer/*Observer<ClientMo
     /**The stage for the gui*/
     private Stage window;
 
-    /**The grid being used to hold all of the panes/tiles*/
+    /**The grid being used to hold all of the panes/tiles, in grid mode*/
     private GridPane grid;
 
+    /**The grid's tiles by row and column, changed in place as tiles change*/
+    private Rectangle[][] cells;
+
+    /**true to draw a node for each tile, false to draw the board in a view that zooms*/
+    private boolean gridMode;
+
+    /**The view of the board, when not in grid mode*/
+    private BoardViewport viewport;
+
+    /**where the mouse was when the board was last dragged*/
+    private double dragX, dragY;
+
+    /**when the view was last panned or zoomed, from System.nanoTime*/
+    private long viewMoved;
+
+    /**the part of the board the server sends changes in, null until asked*/
+    private PlaceRegion subscribed;
+
+    /**The pane the board is shown in*/
+    private BorderPane mainPane;
+
+    /**The board with the inspector over it*/
+    private StackPane boardPane;
+
+    /**Shows where the tile the mouse is over is, who placed it and when*/
+    private Label inspector;
+
+    /**the row major index of the tile the mouse is over, -1 for none*/
+    private int hovered = -1;
+
+    /**when the mouse came onto the tile it is over, from System.nanoTime*/
+    private long hoveredSince;
+
+    /**the row major index of the tile the server was last asked about, -1 for none*/
+    private int asked = -1;
+
+    /**The tiles that changed since the last frame*/
+    private PlaceChanges changes;
+
+    /**Draws what changed once a frame*/
+    private AnimationTimer drawer;
+
     /**creates a network client that is used to connect to a server*/
     private NetworkClient serverConn;
 
@@ -75,8 +149,6 @@ public class PlaceGUI extends Application implements Observer/*Observer<ClientMo
      */
     @Override
     public synchronized void start(Stage primaryStage) throws Exception {
-        this.model.addObserver(this);
-
         //set the stage
         this.window = primaryStage;
 
@@ -84,24 +156,47 @@ public class PlaceGUI extends Application implements Observer/*Observer<ClientMo
         this.window.setTitle("Place: "+username);
 
         //Create a borderpane to gold the grid
-        BorderPane mainPane = new BorderPane();
+        this.mainPane = new BorderPane();
 
         //set init color to black
         this.currentColor = PlaceColor.BLACK;
 
-        //start a new grid
-        this.grid = new GridPane();
+        //the inspector sits in a top corner of the board, hidden until the mouse is on a tile
+        this.inspector = new Label();
+        this.inspector.setStyle("-fx-background-color: rgba(0, 0, 0, 0.75); -fx-text-fill: white; -fx-padding: 4;");
+        this.inspector.setMouseTransparent(true);
+        this.inspector.setVisible(false);
+        this.boardPane = new StackPane();
+        mainPane.setCenter(this.boardPane);
+
+        //start a new grid, or the view that stands in for it
+        if (this.gridMode) {
+            this.grid = new GridPane();
+            this.grid.setOnMouseMoved(mouseEvent ->
+                    this.hover(this.gridTileAt(mouseEvent.getX(), mouseEvent.getY()), mouseEvent.getX()));
+            this.grid.setOnMouseExited(mouseEvent -> this.hover(-1, 0));
+            this.boardPane.getChildren().setAll(this.grid, this.inspector);
+        }
 
         //creates a board with the proper amount of rows/cols
         this.setBoard();
 
         HBox bottom = this.setBottm();
 
-        mainPane.setCenter(this.grid);
         mainPane.setBottom(bottom);
         Scene scene = new Scene(mainPane);
         this.window.setScene(scene);
 
+        //changes are drawn a frame's worth at a time
+        this.drawer = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                drawChanges();
+                askAboutHovered(now);
+                subscribeToView(now);
+            }
+        };
+        this.drawer.start();
 
         primaryStage.show();
     }
@@ -156,7 +251,7 @@ public class PlaceGUI extends Application implements Observer/*Observer<ClientMo
         //set the bottom buttons to be the relative to the size of the window
         //we use 17 because it's the number of colors plus one, when using the number of colors
         //it occasionally stretches the window
-        double bottomSize = TILE_SIZE * this.grid.getColumnCount() / 17;
+        double bottomSize = this.boardWidth() / 17;
 
         //establish the physical proportions of the rectangle
         Rectangle rectangle = new Rectangle(bottomSize, bottomSize);
@@ -234,24 +329,121 @@ public class PlaceGUI extends Application implements Observer/*Observer<ClientMo
     }
 
     /**
-     * A method to convert PlaceTile's getTime() to Standard Date and Time format
-     * @param milliseconds sec
-     * @return month day year hour minute second
+     * Show where the tile the mouse is over is, who placed it and when, or
+     * hide the inspector if the mouse isn't over one.  Only the hovered
+     * tile's text is ever made, as it is now.
      */
-    private synchronized String fromatTime(long milliseconds)
+    private synchronized void inspect()
     {
+        int dim = this.shownDim();
+        int row = this.hovered / dim;
+        int col = this.hovered % dim;
+        //the board may have just been replaced with a smaller one
+        if (this.hovered < 0 || row >= model.getDIM() || col >= model.getDIM()) {
+            this.inspector.setVisible(false);
+            return;
+        }
+        PlaceTile tile = model.getTile(row, col);
+        //a board sent compressed doesn't say who placed a tile or when until the server is asked
+        if (tile.getTime() == 0) {
+            this.inspector.setText("("+row+","+col+")\nunknown");
+        } else {
+            this.inspector.setText("("+row+","+col+")\n"+tile.getOwner()+"\n"
+                    +TIME_FORMAT.format(Instant.ofEpochMilli(tile.getTime())));
+        }
+        this.inspector.setVisible(true);
+    }
 
-        Calendar calendar = Calendar.getInstance();
-        calendar.setTimeInMillis(milliseconds);
+    /**
+     * Ask the server who placed the tile the mouse is over and when, if the
+     * board we have doesn't say, once the mouse has rested on it.  The
+     * answer comes back as a change to the tile, which shows in the
+     * inspector.  Called once a frame on the JavaFX thread.
+     * @param now the time of the frame, from System.nanoTime
+     */
+    private synchronized void askAboutHovered(long now)
+    {
+        if (this.hovered < 0 || this.hovered == this.asked || now - this.hoveredSince < ASK_DELAY) {
+            return;
+        }
+        this.asked = this.hovered;
+        int dim = this.shownDim();
+        int row = this.hovered / dim;
+        int col = this.hovered % dim;
+        if (row >= model.getDIM() || col >= model.getDIM() || model.getTile(row, col).getTime() != 0) {
+            return;
+        }
+        try {
+            serverConn.requestTileInfo(row, col);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Ask the server for only the changes in and around the view, once it
+     * has rested.  What is asked for reaches half the view's size past
+     * each edge, so small moves stay inside it; it is asked for again when
+     * the view leaves it, or is zoomed in so far that most of it is out of
+     * sight.  The server sends the tiles of any part we didn't hear about
+     * before.  Called once a frame on the JavaFX thread.
+     * @param now the time of the frame, from System.nanoTime
+     */
+    private synchronized void subscribeToView(long now)
+    {
+        if (this.gridMode || now - this.viewMoved < SUBSCRIBE_DELAY) {
+            return;
+        }
+        PlaceRegion view = this.viewport.getVisible();
+        if (this.subscribed != null && this.subscribed.contains(view)
+                && 16L * view.getHeight() * view.getWidth()
+                        >= (long) this.subscribed.getHeight() * this.subscribed.getWidth()) {
+            return;
+        }
+        this.subscribed = new PlaceRegion(view.getRow() - view.getHeight() / 2, view.getCol() - view.getWidth() / 2,
+                view.getHeight() * 2, view.getWidth() * 2).clip(this.viewport.getDim());
+        try {
+            serverConn.subscribe(this.subscribed);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
 
-        int year = calendar.get(Calendar.YEAR);
-        int month = calendar.get(Calendar.MONTH)+1;
-        int day = calendar.get(Calendar.DAY_OF_MONTH);
-        int hour = calendar.get(Calendar.HOUR)+12;
-        int minute =calendar.get(Calendar.MINUTE);
-        int second =calendar.get(Calendar.SECOND);
+    /**
+     * The square dimension of the board as it is shown, which lags the
+     * model's for a frame when a board of another size comes.
+     * @return the dimension
+     */
+    private synchronized int shownDim()
+    {
+        return this.gridMode ? this.cells.length : this.viewport.getDim();
+    }
 
-        return month+"\\"+day+"\\"+year+"\n"+hour+":"+minute+":"+second;
+    /**
+     * Work out which tile of the grid is under a point of it.
+     * @param x the point's x, in the grid's coordinates
+     * @param y the point's y, in the grid's coordinates
+     * @return the tile's row major index, or -1 if the point is off the board
+     */
+    private synchronized int gridTileAt(double x, double y)
+    {
+        //the grid has each tile's row as its column
+        int row = (int) Math.floor(x / TILE_SIZE);
+        int col = (int) Math.floor(y / TILE_SIZE);
+        int dim = this.cells.length;
+        if (row < 0 || row >= dim || col < 0 || col >= dim) {
+            return -1;
+        }
+        return row * dim + col;
+    }
+
+    /**
+     * How wide the board is on the screen.
+     * @return the width in pixels
+     */
+    private synchronized double boardWidth()
+    {
+        return this.gridMode ? TILE_SIZE * model.getDIM() : BOARD_SIZE;
     }
 
     /**
@@ -260,22 +452,109 @@ public class PlaceGUI extends Application implements Observer/*Observer<ClientMo
      */
     private synchronized void setBoard()
     {
+        //what the server said about a tile may no longer hold
+        this.asked = -1;
+        if (!this.gridMode) {
+            this.drawViewport();
+            return;
+        }
+        //a board the same size as the one shown only needs repainting
+        if (this.cells != null && this.cells.length == model.getDIM()) {
+            for(int row = 0; row < model.getDIM(); row++)
+                for(int col = 0; col < model.getDIM(); col++)
+                    this.refresh(row, col);
+            return;
+        }
+        this.grid.getChildren().clear();
+        this.cells = new Rectangle[model.getDIM()][model.getDIM()];
+
         //Starts the creation of the board by getting the dimensions of the model
         //and then creating rows/cols
         for(int row = 0; row < model.getDIM(); row++)
             for(int col = 0; col < model.getDIM(); col++) {
-                PlaceTile tempTile = model.getTile(row,col);
-                PlaceColor tempColor = tempTile.getColor();
-
-                Rectangle rectangle = createTile(tempColor);
-
-                //adds the tool tip
-                Tooltip tileInfo = new Tooltip("("+tempTile.getRow()+","+tempTile.getCol()+")\n"+tempTile.getOwner()+
-                        "\n"+fromatTime(tempTile.getTime()));
-                Tooltip.install(rectangle, tileInfo);
+                Rectangle rectangle = createTile(model.getBoard().getColor(row, col));
 
                 this.grid.add(rectangle, row, col);
+                this.cells[row][col] = rectangle;
+            }
+        this.inspect();
+    }
+
+    /**
+     * Give the board view the whole board, making a new view first if there
+     * isn't one or the board has changed size.  The view takes every click,
+     * drag, scroll and hover on the board and works out the tile from where
+     * the mouse is.
+     */
+    private synchronized void drawViewport()
+    {
+        int dim = model.getDIM();
+        if (this.viewport != null && this.viewport.getDim() == dim) {
+            this.viewport.draw(model.getBoard());
+            this.inspect();
+            return;
+        }
+        this.viewport = new BoardViewport(model.getBoard(), BOARD_SIZE, BOARD_SIZE, TILE_SIZE);
+        //what we asked to hear about was for the old board
+        this.subscribed = null;
+        Canvas view = this.viewport.getView();
+        view.setOnMouseClicked(mouseEvent -> {
+            //the end of a drag doesn't paint
+            if (!mouseEvent.isStillSincePress()) {
+                return;
+            }
+            int index = this.viewport.tileAt(mouseEvent.getX(), mouseEvent.getY());
+            if (index < 0) {
+                return;
             }
+            try {
+                serverConn.sendTile(new PlaceTile(index / dim, index % dim, username, currentColor,
+                        System.currentTimeMillis()));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+        view.setOnMousePressed(mouseEvent -> {
+            this.dragX = mouseEvent.getX();
+            this.dragY = mouseEvent.getY();
+        });
+        view.setOnMouseDragged(mouseEvent -> {
+            this.viewport.pan(mouseEvent.getX() - this.dragX, mouseEvent.getY() - this.dragY);
+            this.viewMoved = System.nanoTime();
+            this.dragX = mouseEvent.getX();
+            this.dragY = mouseEvent.getY();
+            this.hover(this.viewport.tileAt(mouseEvent.getX(), mouseEvent.getY()), mouseEvent.getX());
+        });
+        view.setOnScroll(scrollEvent -> {
+            if (scrollEvent.getDeltaY() == 0) {
+                return;
+            }
+            this.viewport.zoom(scrollEvent.getDeltaY() > 0 ? ZOOM_STEP : 1 / ZOOM_STEP,
+                    scrollEvent.getX(), scrollEvent.getY());
+            this.viewMoved = System.nanoTime();
+            this.hover(this.viewport.tileAt(scrollEvent.getX(), scrollEvent.getY()), scrollEvent.getX());
+        });
+        view.setOnMouseMoved(mouseEvent ->
+                this.hover(this.viewport.tileAt(mouseEvent.getX(), mouseEvent.getY()), mouseEvent.getX()));
+        view.setOnMouseExited(mouseEvent -> this.hover(-1, 0));
+        this.boardPane.getChildren().setAll(view, this.inspector);
+        this.hover(-1, 0);
+    }
+
+    /**
+     * Point the inspector at the tile the mouse is over.  It goes in the
+     * top corner away from the mouse, so it doesn't cover what is looked at.
+     * @param index the tile's row major index, -1 for none
+     * @param x where the mouse is across the board, in screen pixels
+     */
+    private synchronized void hover(int index, double x)
+    {
+        if (index != this.hovered) {
+            this.hovered = index;
+            this.hoveredSince = System.nanoTime();
+        }
+        StackPane.setAlignment(this.inspector, x < this.boardWidth() / 2 ? Pos.TOP_RIGHT : Pos.TOP_LEFT);
+        this.inspect();
     }
 
     /**
@@ -310,14 +589,6 @@ public class PlaceGUI extends Application implements Observer/*Observer<ClientMo
         return rectangle;
     }
 
-    /**
-     * Update the gui for the user.
-     */
-    private synchronized void updateOutput()
-    {
-        this.window.show();
-    }
-
     /**
      * smoothly ends the game
      */
@@ -330,27 +601,41 @@ public class PlaceGUI extends Application implements Observer/*Observer<ClientMo
      * closes the NetworClient
      */
     public synchronized void stop() throws IOException {
+        if (this.drawer != null)
+            this.drawer.stop();
         this.endGame();
         this.serverConn.close();
     }
 
     /**
-     * updates the display with the changed tile
-     * @param tile the tile being changed
+     * updates the display with a changed tile as it is on the board now,
+     * changing the tile that is already there rather than adding another
+     * @param row the tile's row
+     * @param col the tile's column
      */
-    private synchronized  void refresh(PlaceTile tile)
+    private synchronized  void refresh(int row, int col)
     {
-        Rectangle rectangle = createTile(tile.getColor());
-
-        grid.add(rectangle, tile.getRow(), tile.getCol());
-
-        PlaceTile tempTile = tile;
-
-        Tooltip tileInfo = new Tooltip("("+tempTile.getRow()+","+tempTile.getCol()+")\n"+tempTile.getOwner()+
-                "\n"+fromatTime(tempTile.getTime()));
-        Tooltip.install(rectangle, tileInfo);
+        PlaceColor color = model.getBoard().getColor(row, col);
+        if (this.gridMode)
+            this.cells[row][col].setFill(setTileColor(color));
+        else
+            this.viewport.draw(row, col, color);
+        if (row * this.shownDim() + col == this.hovered)
+            this.inspect();
+    }
 
-        this.updateOutput();
+    /**
+     * Draw the tiles that changed since the last frame, each once however
+     * many times it changed, and then the board view if it changed or was
+     * moved.  Called once a frame on the JavaFX thread.
+     */
+    private synchronized void drawChanges()
+    {
+        //the server sent a whole new board, so redraw everything
+        if (this.changes.drain(this::refresh))
+            this.setBoard();
+        if (!this.gridMode)
+            this.viewport.render();
     }
 
     /**
@@ -373,8 +658,16 @@ public class PlaceGUI extends Application implements Observer/*Observer<ClientMo
     @Override
     public synchronized  void init() throws IOException {
 
-        //Create a list of strings that holds the args passed in.
-        List<String> parameters = getParameters().getRaw();
+        //Create a list of strings that holds the args passed in, without the options.
+        List<String> parameters = getParameters().getUnnamed();
+
+        //draw the board in a view that zooms unless asked for a node per tile
+        String render = getParameters().getNamed().getOrDefault("render", "image");
+        if (!render.equals("image") && !render.equals("grid")) {
+            System.err.println("--render must be image or grid, not " + render);
+            System.exit(-1);
+        }
+        this.gridMode = render.equals("grid");
 
         //Grabbing the hostname the port number and the username
         String host = parameters.get(0);
@@ -401,12 +694,12 @@ public class PlaceGUI extends Application implements Observer/*Observer<ClientMo
             this.serverConn.close();
         }
 
+        //Keep track of what changes from here on, to draw a frame at a time.
+        this.changes = this.model.watch();
+
         //If you get here then the server starts
         this.serverConn.start();
 
-        //Add model to observer and update the board when possible.
-        this.model.addObserver( this);
-
         //The game is now running therefore the boolean is true.
         //Otherwise default false.
         this.running = true;
@@ -422,27 +715,12 @@ public class PlaceGUI extends Application implements Observer/*Observer<ClientMo
      *             and  the username
      */
     public static void main(String[] args) {
-        if (args.length != 3) {
-            System.out.println("Usage: java PlaceGUI host port username");
+        if (args.length < 3 || args.length > 4) {
+            System.out.println("Usage: java PlaceGUI host port username [--render=image|grid]");
             System.exit(-1);
         } else {
             Application.launch(args);
         }
 
     }
-
-    /**
-     *Updates the view for the user
-     * @param o the observable object
-     * @param arg the view
-     */
-    @Override
-    public synchronized void update(Observable o, Object arg) {
-        Platform.runLater(()->
-                {
-                    if(arg instanceof PlaceTile)
-                        this.refresh((PlaceTile) arg);
-                }
-        );
-    }
 }
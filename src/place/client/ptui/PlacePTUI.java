@@ -1,28 +1,34 @@
 package place.client.ptui;
 
 import place.PlaceBoardObservable;
+import place.PlaceChanges;
 import place.PlaceColor;
 import place.PlaceException;
 import place.PlaceTile;
 import place.network.NetworkClient;
 
 import java.io.IOException;
-import java.util.Observer;
-import java.util.Observable;
 import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 
 /**
  * The PlacePTUI class is the program that runs through the Place Game
  * via a text based board and updates in real-time. The user has a set wait time
  * of .5s per move.
- * Extends Run and implements Oberserver.
+ * Extends Run.  The board is reprinted at most once a frame, however many
+ * tiles changed in it.
  * @author Miguel Rosario
  * @author Joey Saltalamacchia
  * @author Shrif Rai
  */
-public class PlacePTUI extends Run implements Observer {
+public class PlacePTUI extends Run {
+
+    /**How often the board may be reprinted, in milliseconds*/
+    private final static long FRAME = 1000;
 
     /**Grabs the username of the player*/
     private String username;
@@ -33,6 +39,16 @@ public class PlacePTUI extends Run implements Observer {
     /**creates a network client that is used to connect to a server*/
     private NetworkClient serverConn;
 
+    /**The tiles that changed since the board was last printed*/
+    private PlaceChanges changes;
+
+    /**Reprints the board once a frame if it changed*/
+    private final ScheduledExecutorService printer = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "place-ptui");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     /**Creates a boolean value, Running, true/false*/
     private boolean Running;
 
@@ -83,11 +99,17 @@ public class PlacePTUI extends Run implements Observer {
             this.serverConn.close();
         }
 
+        //Keep track of what changes from here on, to print a frame at a time.
+        this.changes = this.model.watch();
+
         //If you get here then the server starts
         this.serverConn.start();
 
-        //Add model to observer and update the board when possible.
-        this.model.addObserver(this);
+        //Reprint the board when it changed, no more than once a frame.
+        this.printer.scheduleAtFixedRate(() -> {
+            if (this.changes.clear())
+                refreshBoard();
+        }, FRAME, FRAME, TimeUnit.MILLISECONDS);
 
         //The game is now Running therefore the boolean is true.
         //Otherwise default false.
@@ -187,6 +209,7 @@ public class PlacePTUI extends Run implements Observer {
      */
     @Override
     public void stop() throws IOException {
+        this.printer.shutdownNow();
         this.serverConn.close();
     }
 
@@ -199,17 +222,6 @@ public class PlacePTUI extends Run implements Observer {
         this.serverConn.displayMessage("Enter where you would like to make a move. (Row Col Color):");
     }
 
-    /**
-     * calls the board refresher.
-     * @param o object
-     * @param arg argument
-     */
-    @Override
-    public void update(Observable o, Object arg) {
-        assert o == this.model;
-        refreshBoard();
-    }
-
 
     /**
      * Display the board
@@ -0,0 +1,206 @@
+package place.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts how often values fall in each of a fixed set of buckets, such as
+ * latencies, to report percentiles without keeping every value.
+ *
+ * The buckets are laid out like an HDR histogram: values below
+ * {@link #SUB_BUCKETS} each have a bucket of their own, and every power of
+ * two above that is split into {@link #SUB_BUCKETS}/2 equal buckets.  So a
+ * value is known to within about 3% of itself, whatever its size, and the
+ * whole range of a long fits in under two thousand buckets.
+ *
+ * Recording is a few atomic adds and never allocates, so any number of
+ * threads can record on a hot path.  Reading while others record is safe
+ * but not a snapshot: a value recorded meanwhile may be in the count and
+ * not yet in the buckets.
+ */
+public class Histogram {
+    /** Sets the precision; values are bucketed by their top 6 bits */
+    private final static int SUB_BITS = 6;
+    /** Values below this have a bucket each */
+    public final static int SUB_BUCKETS = 1 << SUB_BITS;
+    /** Buckets per power of two above {@link #SUB_BUCKETS} */
+    private final static int HALF = SUB_BUCKETS / 2;
+    /** Enough buckets for any positive long */
+    private final static int BUCKETS = SUB_BUCKETS + (63 - SUB_BITS) * HALF;
+
+    /** How many values fell in each bucket */
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    /** How many values were recorded */
+    private final AtomicLong count = new AtomicLong();
+    /** The sum of the values */
+    private final AtomicLong sum = new AtomicLong();
+    /** The largest value */
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Record a value.  Negative values count as 0.
+     *
+     * @param value the value
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        this.counts.incrementAndGet(bucket(value));
+        this.count.incrementAndGet();
+        this.sum.addAndGet(value);
+        this.max.accumulateAndGet(value, Math::max);
+    }
+
+    /**
+     * Get how many values were recorded.
+     *
+     * @return the count
+     */
+    public long getCount() {
+        return this.count.get();
+    }
+
+    /**
+     * Get the sum of the values recorded.
+     *
+     * @return the sum
+     */
+    public long getSum() {
+        return this.sum.get();
+    }
+
+    /**
+     * Get the largest value recorded.
+     *
+     * @return the largest value, 0 if there are none
+     */
+    public long getMax() {
+        return this.max.get();
+    }
+
+    /**
+     * Get the mean of the values recorded.
+     *
+     * @return the mean, 0 if there are none
+     */
+    public double getMean() {
+        long count = this.count.get();
+        return count == 0 ? 0 : (double) this.sum.get() / count;
+    }
+
+    /**
+     * Get the value that a share of the recorded values are at or below.
+     *
+     * @param percentile the share, 0-100
+     * @return the top of the bucket the value is in, no more than the
+     *         largest value; 0 if there are none
+     */
+    public long getValueAtPercentile(double percentile) {
+        long total = 0;
+        for (int bucket = 0; bucket < BUCKETS; ++bucket) {
+            total += this.counts.get(bucket);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long wanted = Math.max(1, (long) Math.ceil(total * Math.min(percentile, 100) / 100));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; ++bucket) {
+            seen += this.counts.get(bucket);
+            if (seen >= wanted) {
+                return Math.min(highest(bucket), this.max.get());
+            }
+        }
+        return this.max.get();
+    }
+
+    /**
+     * Get how many of the recorded values are at or below a value.  Values
+     * in the bucket the value falls in count if the bucket starts at or
+     * below it, so this can be over by part of a bucket.
+     *
+     * @param value the value
+     * @return the count
+     */
+    public long getCountAtOrBelow(long value) {
+        if (value < 0) {
+            return 0;
+        }
+        long seen = 0;
+        int last = bucket(value);
+        for (int bucket = 0; bucket <= last; ++bucket) {
+            seen += this.counts.get(bucket);
+        }
+        return seen;
+    }
+
+    /**
+     * Get how many of the recorded values are at or below each of several
+     * values, and how many there are in all, from one pass over the
+     * buckets.  Unlike asking for each value in turn, the counts never go
+     * down from one value to the next and never pass the total, even while
+     * others record.  Each can be over as {@link #getCountAtOrBelow} is.
+     *
+     * @param values the values, smallest first
+     * @return the count for each value, followed by the total
+     */
+    public long[] getCountsAtOrBelow(long[] values) {
+        long[] counts = new long[values.length + 1];
+        long seen = 0;
+        int next = 0;
+        for (int bucket = 0; bucket < BUCKETS; ++bucket) {
+            while (next < values.length && (values[next] < 0 || bucket > bucket(values[next]))) {
+                counts[next++] = seen;
+            }
+            seen += this.counts.get(bucket);
+        }
+        while (next < values.length) {
+            counts[next++] = seen;
+        }
+        counts[values.length] = seen;
+        return counts;
+    }
+
+    /**
+     * Forget every value recorded.
+     */
+    public void reset() {
+        for (int bucket = 0; bucket < BUCKETS; ++bucket) {
+            this.counts.set(bucket, 0);
+        }
+        this.count.set(0);
+        this.sum.set(0);
+        this.max.set(0);
+    }
+
+    /**
+     * Work out which bucket a value falls in.
+     *
+     * @param value the value, not negative
+     * @return the bucket
+     */
+    private static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int top = (int) (value >>> (exponent - SUB_BITS + 1));
+        return SUB_BUCKETS + (exponent - SUB_BITS) * HALF + (top - HALF);
+    }
+
+    /**
+     * Get the largest value that falls in a bucket.
+     *
+     * @param bucket the bucket
+     * @return the value
+     */
+    private static long highest(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = (bucket - SUB_BUCKETS) / HALF + 1;
+        long top = (bucket - SUB_BUCKETS) % HALF + HALF;
+        return (top << shift) + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,102 @@
+package place.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+/**
+ * A small HTTP server that answers GET /metrics with the current metrics
+ * in Prometheus text format.  It listens on the loopback address only, so
+ * the metrics can be scraped from the machine itself or through a proxy
+ * but aren't open to the world.
+ *
+ * It uses the HTTP server that comes with the JDK and one thread of its
+ * own; the metrics are only gathered when someone asks for them.
+ */
+public class MetricsEndpoint implements Closeable {
+    /** What the metrics are sent as */
+    private final static String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    /** The server */
+    private final HttpServer server;
+    /** Runs the requests */
+    private final ExecutorService executor;
+    /** Gathers the metrics */
+    private final Supplier<String> metrics;
+
+    /**
+     * Start serving metrics.
+     *
+     * @param port the port to listen on; 0 picks a free one
+     * @param metrics gathers the metrics as Prometheus text, once a request
+     * @throws IOException if the port can't be opened
+     */
+    public MetricsEndpoint(int port, Supplier<String> metrics) throws IOException {
+        this.metrics = metrics;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.executor = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "place-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.server.setExecutor(this.executor);
+        this.server.createContext("/metrics", this::serve);
+        this.server.start();
+    }
+
+    /**
+     * The port the endpoint is listening on.
+     *
+     * @return the port
+     */
+    public int getPort() {
+        return this.server.getAddress().getPort();
+    }
+
+    /**
+     * Answer one request.
+     *
+     * @param exchange the request and its response
+     * @throws IOException if the response can't be sent
+     */
+    private void serve(HttpExchange exchange) throws IOException {
+        try {
+            String method = exchange.getRequestMethod();
+            if (!method.equals("GET") && !method.equals("HEAD")) {
+                exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = this.metrics.get().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            if (method.equals("HEAD")) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Stop serving metrics.
+     */
+    @Override
+    public void close() {
+        this.server.stop(0);
+        this.executor.shutdownNow();
+    }
+}
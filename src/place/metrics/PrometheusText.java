@@ -0,0 +1,163 @@
+package place.metrics;
+
+/**
+ * Writes metrics in the Prometheus text exposition format, version 0.0.4,
+ * which Prometheus and most other collectors can scrape.  Each metric is
+ * written with its help and type lines, followed by its samples:
+ *
+ * <pre>
+ * # HELP place_tiles_accepted_total Tile changes accepted
+ * # TYPE place_tiles_accepted_total counter
+ * place_tiles_accepted_total 1027
+ * </pre>
+ *
+ * The text is built in memory, once per scrape.
+ */
+public class PrometheusText {
+    /** The text so far */
+    private final StringBuilder text = new StringBuilder();
+
+    /**
+     * Write a counter with a single sample.
+     *
+     * @param name the metric name, ending in _total
+     * @param help what it counts
+     * @param value the count
+     * @return this
+     */
+    public PrometheusText counter(String name, String help, double value) {
+        return family(name, "counter", help).sample(name, value);
+    }
+
+    /**
+     * Write a gauge with a single sample.
+     *
+     * @param name the metric name
+     * @param help what it measures
+     * @param value the value
+     * @return this
+     */
+    public PrometheusText gauge(String name, String help, double value) {
+        return family(name, "gauge", help).sample(name, value);
+    }
+
+    /**
+     * Start a metric whose samples have labels; follow it with
+     * {@link #sample(String, String, String, double)} for each.
+     *
+     * @param name the metric name
+     * @param type counter, gauge, histogram, summary or untyped
+     * @param help what it measures
+     * @return this
+     */
+    public PrometheusText family(String name, String type, String help) {
+        this.text.append("# HELP ").append(name).append(' ');
+        for (int i = 0; i < help.length(); ++i) {
+            char c = help.charAt(i);
+            if (c == '\\') {
+                this.text.append("\\\\");
+            } else if (c == '\n') {
+                this.text.append("\\n");
+            } else {
+                this.text.append(c);
+            }
+        }
+        this.text.append('\n');
+        this.text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        return this;
+    }
+
+    /**
+     * Write a sample with no labels.
+     *
+     * @param name the sample name
+     * @param value the value
+     * @return this
+     */
+    public PrometheusText sample(String name, double value) {
+        this.text.append(name).append(' ');
+        number(value);
+        this.text.append('\n');
+        return this;
+    }
+
+    /**
+     * Write a sample with one label.
+     *
+     * @param name the sample name
+     * @param label the label name
+     * @param labelValue the label value, which may hold any characters
+     * @param value the value
+     * @return this
+     */
+    public PrometheusText sample(String name, String label, String labelValue, double value) {
+        this.text.append(name).append('{').append(label).append("=\"");
+        for (int i = 0; i < labelValue.length(); ++i) {
+            char c = labelValue.charAt(i);
+            if (c == '\\' || c == '"') {
+                this.text.append('\\').append(c);
+            } else if (c == '\n') {
+                this.text.append("\\n");
+            } else {
+                this.text.append(c);
+            }
+        }
+        this.text.append("\"} ");
+        number(value);
+        this.text.append('\n');
+        return this;
+    }
+
+    /**
+     * Write a histogram.  Its buckets are cumulative, as Prometheus wants,
+     * and are read from the histogram in one pass so they agree with each
+     * other and with the count.
+     *
+     * @param name the metric name
+     * @param help what it measures
+     * @param histogram the values
+     * @param bounds the upper bounds of the buckets, in the histogram's
+     *               unit, smallest first
+     * @param scale how many of the histogram's units make one of the
+     *              metric's, such as 1e9 for nanoseconds shown as seconds
+     * @return this
+     */
+    public PrometheusText histogram(String name, String help, Histogram histogram, long[] bounds, double scale) {
+        family(name, "histogram", help);
+        long[] counts = histogram.getCountsAtOrBelow(bounds);
+        for (int i = 0; i < bounds.length; ++i) {
+            sample(name + "_bucket", "le", Double.toString(bounds[i] / scale), counts[i]);
+        }
+        sample(name + "_bucket", "le", "+Inf", counts[bounds.length]);
+        sample(name + "_sum", histogram.getSum() / scale);
+        return sample(name + "_count", counts[bounds.length]);
+    }
+
+    /**
+     * Write a number the way Prometheus reads them: whole numbers without
+     * a fraction, and the special values by name.
+     *
+     * @param value the number
+     */
+    private void number(double value) {
+        if (Double.isNaN(value)) {
+            this.text.append("NaN");
+        } else if (Double.isInfinite(value)) {
+            this.text.append(value > 0 ? "+Inf" : "-Inf");
+        } else if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            this.text.append((long) value);
+        } else {
+            this.text.append(value);
+        }
+    }
+
+    /**
+     * Get the text written so far.
+     *
+     * @return the text
+     */
+    @Override
+    public String toString() {
+        return this.text.toString();
+    }
+}
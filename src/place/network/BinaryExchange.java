@@ -0,0 +1,86 @@
+package place.network;
+
+import place.PlaceOwners;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A connection that speaks the binary Place protocol, one
+ * {@link PlaceCodec} frame per request.
+ */
+class BinaryExchange implements PlaceExchange {
+    /** The connection */
+    private final Socket socket;
+    /** Frames coming in */
+    private final DataInputStream in;
+    /** Frames going out */
+    private final DataOutputStream out;
+    /** Counts the bytes that reach the socket */
+    private final CountingOutputStream sent;
+    /** Turns requests into frames and back */
+    private final PlaceCodec codec;
+    /** Held while a request is being written */
+    private final ReentrantLock sendLock = new ReentrantLock();
+
+    /**
+     * Wrap a socket that has already agreed on the binary protocol.
+     *
+     * @param socket the connection
+     * @param in buffered input of the socket
+     * @param out buffered output of the socket
+     * @param sent the socket's output, under the buffer, counting bytes
+     * @param owners the dictionary our owner ids come from
+     * @param version the protocol version both ends agreed on
+     * @param server true for the server's end of the connection
+     */
+    BinaryExchange(Socket socket, DataInputStream in, DataOutputStream out, CountingOutputStream sent,
+                   PlaceOwners owners, int version, boolean server) {
+        this.socket = socket;
+        this.in = in;
+        this.out = out;
+        this.sent = sent;
+        this.codec = new PlaceCodec(owners, version, server);
+    }
+
+    @Override
+    public void send(PlaceRequest<?> request) throws IOException {
+        //a lock rather than a monitor, so a virtual thread blocked on the
+        //socket doesn't pin its carrier
+        this.sendLock.lock();
+        try {
+            this.codec.encode(request, this.out);
+            this.out.flush();
+        } finally {
+            this.sendLock.unlock();
+        }
+    }
+
+    @Override
+    public PlaceRequest<?> receive() throws IOException {
+        PlaceRequest<?> request;
+        //owner frames are handled by the codec and don't come back out
+        do {
+            request = this.codec.decode(this.in);
+        } while (request == null);
+        return request;
+    }
+
+    @Override
+    public boolean isBinary() {
+        return true;
+    }
+
+    @Override
+    public long getBytesSent() {
+        return this.sent.getCount();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.socket.close();
+    }
+}
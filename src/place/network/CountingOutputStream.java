@@ -0,0 +1,46 @@
+package place.network;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Passes bytes on to a socket's output, keeping count of them, so the
+ * server can tell how much it has sent each client.  Only one thread
+ * writes at a time; any thread may read the count.
+ */
+class CountingOutputStream extends FilterOutputStream {
+    /** Bytes written so far */
+    private volatile long count;
+
+    /**
+     * Count the bytes written to a stream.
+     *
+     * @param out the stream
+     */
+    CountingOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        this.out.write(b);
+        ++this.count;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        //FilterOutputStream would write them a byte at a time
+        this.out.write(b, off, len);
+        this.count += len;
+    }
+
+    /**
+     * Get how many bytes have been written.
+     *
+     * @return the count
+     */
+    long getCount() {
+        return this.count;
+    }
+}
@@ -2,17 +2,21 @@ package place.network;
 
 import place.PlaceBoard;
 import place.PlaceBoardObservable;
+import place.PlaceColor;
 import place.PlaceException;
+import place.PlaceRegion;
 import place.PlaceTile;
 
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * Network client for place that handles the moving, message displays
- * waiting functionality, and run checking.
+ * waiting functionality, and run checking.  If the connection is lost it
+ * keeps trying to reconnect, waiting longer after each failure, and picks
+ * up from the last change it saw.
  * @author Joey Saltalamacchia
  * @author Shrif Rai
  * @author Miguel Rosario
@@ -22,23 +26,38 @@ public class NetworkClient {
     /**The set wait time for the user to wait in between each turn*/
     private final static int WAIT = 500;
 
+    /**How long to wait before the first try at reconnecting, in milliseconds*/
+    private final static int RETRY_MIN = 500;
+
+    /**The longest wait between tries at reconnecting, in milliseconds*/
+    private final static int RETRY_MAX = 30000;
+
     /**New board object*/
     private PlaceBoardObservable board;
 
-    /**New socket serverConn*/
-    private Socket serverConn;
+    /**The connection to the server; replaced when we reconnect*/
+    private volatile PlaceExchange serverConn;
+
+    /**where the server is, for reconnecting*/
+    private String host;
 
-    /**User In*/
-    private ObjectInputStream in;
+    /**the server's port, for reconnecting*/
+    private int port;
 
-    /**User Out*/
-    private ObjectOutputStream out;
+    /**who we logged in as*/
+    private String username;
+
+    /**the sequence number of the last change seen, 0 if the server doesn't number them*/
+    private long lastSeq;
+
+    /**the parts of the board we asked to hear about, or null for all of it*/
+    private volatile PlaceRegion[] regions;
 
     /**the message that gets displayed to the user*/
     private String displayMessage;
 
-    /**the time to wait*/
-    private boolean coolDown;
+    /**when the last move was sent, in milliseconds*/
+    private long lastMove;
 
     /**boolean value to see if the game is still running*/
     private boolean running;
@@ -75,22 +94,18 @@ public class NetworkClient {
         try {
             //Display the class being used.
             this.displayMessage = "*" + className + "*: ";
+            this.host = host;
+            this.port = port;
+            this.username = username;
 
-            //new socket server connection
-            this.serverConn = new Socket(host, port);
+            //new server connection, binary if the server speaks it
+            this.serverConn = PlaceProtocol.connect(host, port);
 
             //instantiating board
             this.board = board;
 
-            //outputs the serverconn
-            this.out = new ObjectOutputStream(serverConn.getOutputStream());
-            out.flush();
-
-            //inputs serverconn info
-            this.in = new ObjectInputStream(serverConn.getInputStream());
-
-            out.writeUnshared(new PlaceRequest<>(PlaceRequest.RequestType.LOGIN, username));
-            PlaceRequest<?> response = (PlaceRequest<?>) in.readUnshared();
+            serverConn.send(new PlaceRequest<>(PlaceRequest.RequestType.LOGIN, username));
+            PlaceRequest<?> response = serverConn.receive();
 
             //Attempts to log onto the server
             switch (response.getType()) {
@@ -111,7 +126,7 @@ public class NetworkClient {
                     throw new PlaceException("Unable to join.");
             }
 
-            PlaceRequest<?> boardResponse = (PlaceRequest<?>) in.readUnshared();
+            PlaceRequest<?> boardResponse = serverConn.receive();
 
             //If there is not request for the board being transmitted then the board
             //has not been received and will fail
@@ -120,8 +135,9 @@ public class NetworkClient {
             else
             //else the board will be created and the game will now be running
                 this.board.createBoard((PlaceBoard) boardResponse.getData());
+            this.lastSeq = this.board.getBoard().getSeq();
             this.running = true;
-        } catch (IOException | ClassNotFoundException | PlaceException e) {
+        } catch (IOException | PlaceException e) {
             System.exit(0);
             throw new PlaceException(e);
         }
@@ -152,21 +168,37 @@ public class NetworkClient {
         //while running
         while(this.running()) {
             try {
-                //try to make a place request that sends the input in
-                //unshared: Reads an "unshared" object from the ObjectInputStream.  This method is
-                //          * identical to readObject, except that it prevents subsequent calls to
-                //          * readObject and readUnshared from returning additional references to the
-                //          * deserialized instance obtained via this call.
-                PlaceRequest<?> request = ( PlaceRequest<?> ) this.in.readUnshared();
+                //wait for the next request from the server
+                PlaceRequest<?> request = this.serverConn.receive();
 
                 //once request sent
                 //switch statement that takes in a type
                 switch(request.getType()) {
                     //if the TILE_CHANGED, then make a move and display it with the tile
                     case TILE_CHANGED:
+                        PlaceTile[] tile = unseen(request.getTiles());
+                        if (tile.length > 0)
+                            moveDisplay( tile[0] );
+                        break;
+
+                    //a tick's worth of changes, or the ones we missed, applied together
+                    case TILES_CHANGED:
+                        PlaceTile[] tiles = unseen(request.getTiles());
+                        if (tiles.length > 0)
+                            this.board.moveDisplay( tiles );
+                        break;
+
+                    //the owner and time of a tile we asked about
+                    case TILE_INFO:
                         moveDisplay( (PlaceTile) request.getData() );
                         break;
 
+                    //the server gave up on sending us every change; start over from its board
+                    case BOARD:
+                        this.board.replaceBoard( (PlaceBoard) request.getData() );
+                        this.lastSeq = this.board.getBoard().getSeq();
+                        break;
+
                     //if theres an error, display an error by string and send it.
                     case ERROR:
                         error( (String) request.getData() );
@@ -175,52 +207,135 @@ public class NetworkClient {
                         cantConnect();
                 }
             }
-            catch(IOException | ClassNotFoundException e) {
+            catch(IOException e) {
                 disconnected();
 
-                this.stop();
+                if (!reconnect())
+                    this.stop();
             }
         }
         this.close();
     }
 
+    /**
+     * Drop the changes we have already seen.  A change can arrive twice
+     * around a new board or a reconnect, and putting back an older copy
+     * would undo a newer one.  Changes without a sequence number are
+     * always kept.
+     * @param tiles the changes, in any order
+     * @return the ones that are new
+     */
+    private PlaceTile[] unseen(PlaceTile[] tiles) {
+        long seen = this.lastSeq;
+        List<PlaceTile> fresh = new ArrayList<>(tiles.length);
+        for (PlaceTile tile : tiles) {
+            if (tile.getSeq() == 0 || tile.getSeq() > seen) {
+                fresh.add(tile);
+                this.lastSeq = Math.max(this.lastSeq, tile.getSeq());
+            }
+        }
+        return fresh.size() == tiles.length ? tiles : fresh.toArray(new PlaceTile[0]);
+    }
+
+    /**
+     * Keep trying to get back onto the server, waiting twice as long after
+     * each failure (with some randomness, so a crowd cut off together
+     * doesn't come back together).  If the server numbers its changes we
+     * ask for the ones we missed; otherwise we log in again and it sends
+     * the whole board.
+     * @return true once reconnected, false if the client was stopped first
+     */
+    private boolean reconnect() {
+        try {
+            this.serverConn.close();
+        } catch (IOException ignored) {
+        }
+        long delay = RETRY_MIN;
+        while (this.running()) {
+            try {
+                Thread.sleep(delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1));
+            } catch (InterruptedException e) {
+                return false;
+            }
+            try {
+                PlaceExchange conn = PlaceProtocol.connect(this.host, this.port);
+                try {
+                    //the subscription goes first, so what we missed is cut down to it
+                    PlaceRegion[] regions = this.regions;
+                    if (this.lastSeq != 0 && regions != null)
+                        conn.send(new PlaceRequest<>(PlaceRequest.RequestType.SUBSCRIBE, regions));
+                    if (this.lastSeq != 0)
+                        conn.send(new PlaceRequest<>(PlaceRequest.RequestType.RESUME,
+                                new PlaceSession(this.username, this.lastSeq)));
+                    else
+                        conn.send(new PlaceRequest<>(PlaceRequest.RequestType.LOGIN, this.username));
+                    PlaceRequest<?> response = conn.receive();
+                    if (response.getType() == PlaceRequest.RequestType.LOGIN_SUCCESS) {
+                        this.serverConn = conn;
+                        displayMessage("Reconnected to the server.");
+                        return true;
+                    }
+                    //most likely the server hasn't noticed our old connection is gone yet
+                    displayErrorMessage("Server response: " + response.getData() + ".");
+                    conn.close();
+                } catch (IOException e) {
+                    conn.close();
+                    throw e;
+                }
+            } catch (IOException e) {
+                displayErrorMessage("Still can't reach the server.");
+            }
+            delay = Math.min(delay * 2, RETRY_MAX);
+        }
+        return false;
+    }
+
     /**
      * method that sends the tile to be placed.
      * If the cooldown is still in place (.5s) then the user will get a wait message.
      * once the cooldown is over the user can proceed to place another tile that will be sent
-     * via writeUnshared.
+     * to the server.  The server has a limit of its own; this just saves
+     * sending moves it would refuse.
      * @param tile tile
      * @throws IOException e
      */
     public synchronized void sendTile(PlaceTile tile) throws IOException {
+        long now = System.currentTimeMillis();
         //if there is a cooldown, display error message that you can't make a move yet
-        if (this.coolDown)
+        if (now - this.lastMove < WAIT)
             displayErrorMessage("Wait 0.5s before making a move.");
-        //else send a thread that's created in a lambda to send the tile if there is not a cooldown.
+        //else send the tile and start the cooldown
         else {
-            this.out.writeUnshared(new PlaceRequest<>(PlaceRequest.RequestType.CHANGE_TILE, tile));
-            out.flush();
-            new Thread(() -> {
-                try {
-                    coolDown();
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
-            }).start();
+            this.serverConn.send(new PlaceRequest<>(PlaceRequest.RequestType.CHANGE_TILE, tile));
+            this.lastMove = now;
         }
     }
 
     /**
-     * A method that forces the threads (player moves) to wait a set amount of time.
-     * (Currently 5s, but subject to change)
-     * @throws InterruptedException IE
+     * Ask the server who last changed a tile and when.  A board sent as a
+     * compressed image only has the colors; the answer arrives later and
+     * updates the tile like any other change.
+     * @param row row
+     * @param col column
+     * @throws IOException e
      */
-    private void coolDown() throws InterruptedException {
-        this.coolDown = true;
-        Thread.sleep(WAIT);
-        this.coolDown = false;
+    public void requestTileInfo(int row, int col) throws IOException {
+        this.serverConn.send(new PlaceRequest<>(PlaceRequest.RequestType.TILE_INFO,
+                new PlaceTile(row, col, "", PlaceColor.WHITE)));
     }
 
+    /**
+     * Only hear about changes in some parts of the board, such as the part
+     * on the screen.  Tiles outside them stop being kept up to date; the
+     * server sends the current tiles of any part we didn't have yet.  This
+     * is remembered and asked for again after a reconnect.
+     * @param regions the parts of the board to hear about
+     * @throws IOException e
+     */
+    public void subscribe(PlaceRegion... regions) throws IOException {
+        this.regions = regions.clone();
+        this.serverConn.send(new PlaceRequest<>(PlaceRequest.RequestType.SUBSCRIBE, this.regions));
+    }
 
     /**
      * update the board with the new move of the tile.
@@ -232,11 +347,12 @@ public class NetworkClient {
 
     /**
      * Displays an error message and the error that the server threw.
+     * Once logged in errors are only warnings, such as moving too fast,
+     * so the game carries on.
      * @param error err
      */
     private void error(String error) {
         displayErrorMessage("Server responded with error message: \"" + error + "\"");
-        this.stop();
     }
 
     /**
@@ -277,8 +393,6 @@ public class NetworkClient {
      */
     public void close() throws IOException {
         this.serverConn.close();
-        this.in.close();
-        this.out.close();
     }
 
 }
\ No newline at end of file
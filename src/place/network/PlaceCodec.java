@@ -0,0 +1,442 @@
+package place.network;
+
+import place.PlaceBoard;
+import place.PlaceColor;
+import place.PlaceOwners;
+import place.PlaceRegion;
+import place.PlaceTile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Encodes and decodes the frames of the binary Place protocol.
+ *
+ * Every frame is a 4 byte length (counting everything after it), a 1 byte
+ * frame type and the payload:<br>
+ *      BOARD: the board, see {@link PlaceBoard#writeTo}<br>
+ *      BOARD_IMAGE: the dimension and the deflated color plane, see
+ *      {@link PlaceBoard#getCompressedColors}<br>
+ *      CHANGE_TILE, TILE_CHANGED, TILE_INFO: a tile record<br>
+ *      TILES_CHANGED: a 4 byte count followed by that many tile records<br>
+ *      ERROR, LOGIN, LOGIN_SUCCESS: a modified UTF-8 string<br>
+ *      OWNER: an owner id followed by the owner's name<br>
+ *      RESUME: the username as a modified UTF-8 string, then the sequence
+ *      number (8) of the last change the client saw<br>
+ *      SUBSCRIBE: a 4 byte count followed by that many regions, each the
+ *      row (4), column (4), height (4) and width (4)<br>
+ *
+ * A tile record is the row (4), column (4), color number (1), owner id (4)
+ * and time (8), and from version 3 the change's sequence number (8).  A
+ * version 3 BOARD_IMAGE also carries the board's sequence number (8) after
+ * the dimension.  Owner ids are numbered from 0 on each connection, in the
+ * order the sender announces them; an OWNER frame announcing the id is
+ * sent the first time it is used, so names cross the wire once per
+ * connection instead of once per tile, and an id that isn't the next one
+ * or an old one is garbage.  A batch announces every new
+ * owner it uses before the batch itself.
+ *
+ * From protocol version 2 a board is sent as a BOARD_IMAGE, which leaves
+ * out the owner and time of every tile; clients ask for those with
+ * TILE_INFO when they need them.  Version 1 peers get the whole BOARD.
+ *
+ * A server's codec refuses BOARD and BOARD_IMAGE frames, since only the
+ * server sends boards and a client could otherwise make it build a board
+ * of any size.  For the same reason it reads no frame from a client longer
+ * than {@link #MAX_CLIENT_FRAME}.
+ *
+ * A codec holds the owner state of one connection.  Encoding and decoding
+ * each need to be done by one thread at a time, but they can be done at the
+ * same time as each other.
+ */
+public class PlaceCodec {
+    /** Frame type of {@link PlaceRequest.RequestType#BOARD} */
+    public final static int BOARD = 1;
+    /** Frame type of {@link PlaceRequest.RequestType#CHANGE_TILE} */
+    public final static int CHANGE_TILE = 2;
+    /** Frame type of {@link PlaceRequest.RequestType#ERROR} */
+    public final static int ERROR = 3;
+    /** Frame type of {@link PlaceRequest.RequestType#LOGIN} */
+    public final static int LOGIN = 4;
+    /** Frame type of {@link PlaceRequest.RequestType#LOGIN_SUCCESS} */
+    public final static int LOGIN_SUCCESS = 5;
+    /** Frame type of {@link PlaceRequest.RequestType#TILE_CHANGED} */
+    public final static int TILE_CHANGED = 6;
+    /** Frame type of {@link PlaceRequest.RequestType#TILES_CHANGED} */
+    public final static int TILES_CHANGED = 7;
+    /** Frame type of a {@link PlaceRequest.RequestType#BOARD} without owners and times */
+    public final static int BOARD_IMAGE = 8;
+    /** Frame type of {@link PlaceRequest.RequestType#TILE_INFO} */
+    public final static int TILE_INFO = 9;
+    /** Frame type of {@link PlaceRequest.RequestType#RESUME} */
+    public final static int RESUME = 10;
+    /** Frame type of {@link PlaceRequest.RequestType#SUBSCRIBE} */
+    public final static int SUBSCRIBE = 11;
+    /** Frame type that announces an owner id */
+    public final static int OWNER = 64;
+
+    /** The size of a tile record */
+    public final static int TILE_RECORD = 21;
+    /** The size of a tile record with a sequence number */
+    public final static int SEQ_TILE_RECORD = TILE_RECORD + 8;
+    /** The size of a region record */
+    private final static int REGION_RECORD = 16;
+
+    /** The largest frame we are willing to read */
+    public final static int MAX_FRAME = 1 << 30;
+    /** The largest frame the server will read from a client, which never sends boards */
+    public final static int MAX_CLIENT_FRAME = 64 * 1024;
+    /** Scratch buffers bigger than this are dropped after use */
+    private final static int SCRATCH_LIMIT = 64 * 1024;
+
+    /** Where our owner ids come from */
+    private final PlaceOwners owners;
+    /** The protocol version agreed with the other end */
+    private final int version;
+    /** true if this is the server's end of the connection */
+    private final boolean server;
+    /** The id on this connection of each of our owner ids, plus 1; 0 if not announced yet */
+    private int[] wireIds = new int[16];
+    /** How many owners the other end has been told about */
+    private int announced;
+    /** The other end's owner names, indexed by their ids */
+    private final List<String> remoteOwners = new ArrayList<>();
+    /** Holds a payload while its length is worked out */
+    private ByteArrayOutputStream scratch = new ByteArrayOutputStream();
+    /** Writes into the scratch buffer */
+    private DataOutputStream payload = new DataOutputStream(this.scratch);
+
+    /**
+     * Create a codec for one connection.
+     *
+     * @param owners the dictionary our owner ids come from; the server
+     *               passes the board's dictionary so ids match the board
+     * @param version the protocol version agreed with the other end
+     */
+    public PlaceCodec(PlaceOwners owners, int version) {
+        this(owners, version, false);
+    }
+
+    /**
+     * Create a codec for one connection.
+     *
+     * @param owners the dictionary our owner ids come from; the server
+     *               passes the board's dictionary so ids match the board
+     * @param version the protocol version agreed with the other end
+     * @param server true for the server's end, which refuses boards
+     */
+    public PlaceCodec(PlaceOwners owners, int version, boolean server) {
+        this.owners = owners;
+        this.version = version;
+        this.server = server;
+    }
+
+    /**
+     * Write a request as one or more frames.
+     *
+     * @param request the request
+     * @param out where the frames go (not flushed)
+     * @throws IOException if the write fails
+     */
+    public void encode(PlaceRequest<?> request, DataOutputStream out) throws IOException {
+        switch (request.getType()) {
+            case BOARD:
+                PlaceBoard board = (PlaceBoard) request.getData();
+                if (this.version >= 3) {
+                    //the number first; the image can only be newer than it
+                    long seq = board.getSeq();
+                    byte[] image = board.getCompressedColors();
+                    out.writeInt(1 + 4 + 8 + image.length);
+                    out.writeByte(BOARD_IMAGE);
+                    out.writeInt(board.DIM);
+                    out.writeLong(seq);
+                    out.write(image);
+                } else if (this.version >= 2) {
+                    //the shared image goes straight out, not through the scratch
+                    byte[] image = board.getCompressedColors();
+                    out.writeInt(1 + 4 + image.length);
+                    out.writeByte(BOARD_IMAGE);
+                    out.writeInt(board.DIM);
+                    out.write(image);
+                } else {
+                    board.writeTo(this.payload);
+                    frame(BOARD, out);
+                }
+                break;
+            case CHANGE_TILE:
+                tile(CHANGE_TILE, (PlaceTile) request.getData(), out);
+                break;
+            case TILE_CHANGED:
+                tile(TILE_CHANGED, (PlaceTile) request.getData(), out);
+                break;
+            case TILES_CHANGED:
+                tiles((PlaceTile[]) request.getData(), out);
+                break;
+            case TILE_INFO:
+                tile(TILE_INFO, (PlaceTile) request.getData(), out);
+                break;
+            case ERROR:
+                this.payload.writeUTF(String.valueOf(request.getData()));
+                frame(ERROR, out);
+                break;
+            case LOGIN:
+                this.payload.writeUTF(String.valueOf(request.getData()));
+                frame(LOGIN, out);
+                break;
+            case LOGIN_SUCCESS:
+                this.payload.writeUTF(String.valueOf(request.getData()));
+                frame(LOGIN_SUCCESS, out);
+                break;
+            case RESUME:
+                PlaceSession session = (PlaceSession) request.getData();
+                this.payload.writeUTF(session.getUsername());
+                this.payload.writeLong(session.getSeq());
+                frame(RESUME, out);
+                break;
+            case SUBSCRIBE:
+                PlaceRegion[] regions = (PlaceRegion[]) request.getData();
+                this.payload.writeInt(regions.length);
+                for (PlaceRegion region : regions) {
+                    this.payload.writeInt(region.getRow());
+                    this.payload.writeInt(region.getCol());
+                    this.payload.writeInt(region.getHeight());
+                    this.payload.writeInt(region.getWidth());
+                }
+                frame(SUBSCRIBE, out);
+                break;
+        }
+    }
+
+    /**
+     * Read the next frame.
+     *
+     * @param in where the frames come from
+     * @return the request, or null if the frame was only for the codec
+     * @throws IOException if the read fails or the frame is garbage
+     */
+    public PlaceRequest<?> decode(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 1 || length > (this.server ? MAX_CLIENT_FRAME : MAX_FRAME)) {
+            throw new StreamCorruptedException("Bad frame length " + length);
+        }
+        return decode(in.readUnsignedByte(), length - 1, in);
+    }
+
+    /**
+     * Decode the payload of a frame whose header has already been read.
+     *
+     * @param type the frame type
+     * @param length the payload length
+     * @param in the payload
+     * @return the request, or null if the frame was only for the codec
+     * @throws IOException if the read fails or the frame is garbage
+     */
+    public PlaceRequest<?> decode(int type, int length, DataInput in) throws IOException {
+        if (this.server && (type == BOARD || type == BOARD_IMAGE)) {
+            throw new StreamCorruptedException("Clients can't send boards");
+        }
+        switch (type) {
+            case BOARD:
+                return new PlaceRequest<>(PlaceRequest.RequestType.BOARD, PlaceBoard.readFrom(in));
+            case BOARD_IMAGE:
+                int header = this.version >= 3 ? 12 : 4;
+                if (length < header) {
+                    throw new StreamCorruptedException("Board image frame too short");
+                }
+                int dim = in.readInt();
+                if (dim < 1 || (long) dim * dim > Integer.MAX_VALUE) {
+                    throw new StreamCorruptedException("Bad board dimension " + dim);
+                }
+                long seq = this.version >= 3 ? in.readLong() : 0;
+                byte[] image = new byte[length - header];
+                in.readFully(image);
+                PlaceBoard compressed = PlaceBoard.fromCompressedColors(dim, image);
+                compressed.setSeq(seq);
+                return new PlaceRequest<>(PlaceRequest.RequestType.BOARD, compressed);
+            case CHANGE_TILE:
+                return new PlaceRequest<>(PlaceRequest.RequestType.CHANGE_TILE, readTile(in));
+            case TILE_CHANGED:
+                return new PlaceRequest<>(PlaceRequest.RequestType.TILE_CHANGED, readTile(in));
+            case TILES_CHANGED:
+                int count = in.readInt();
+                if (count < 0 || count > (length - 4) / tileRecord()) {
+                    throw new StreamCorruptedException("Bad tile count " + count);
+                }
+                //grown as records are read, not sized by what the other end claims
+                List<PlaceTile> tiles = new ArrayList<>();
+                for (int i = 0; i < count; ++i) {
+                    tiles.add(readTile(in));
+                }
+                return new PlaceRequest<>(PlaceRequest.RequestType.TILES_CHANGED, tiles.toArray(new PlaceTile[0]));
+            case TILE_INFO:
+                return new PlaceRequest<>(PlaceRequest.RequestType.TILE_INFO, readTile(in));
+            case ERROR:
+                return new PlaceRequest<>(PlaceRequest.RequestType.ERROR, in.readUTF());
+            case LOGIN:
+                return new PlaceRequest<>(PlaceRequest.RequestType.LOGIN, in.readUTF());
+            case LOGIN_SUCCESS:
+                return new PlaceRequest<>(PlaceRequest.RequestType.LOGIN_SUCCESS, in.readUTF());
+            case RESUME:
+                String username = in.readUTF();
+                return new PlaceRequest<>(PlaceRequest.RequestType.RESUME, new PlaceSession(username, in.readLong()));
+            case SUBSCRIBE:
+                int regionCount = in.readInt();
+                if (regionCount < 0 || regionCount > (length - 4) / REGION_RECORD) {
+                    throw new StreamCorruptedException("Bad region count " + regionCount);
+                }
+                List<PlaceRegion> regions = new ArrayList<>();
+                for (int i = 0; i < regionCount; ++i) {
+                    regions.add(new PlaceRegion(in.readInt(), in.readInt(), in.readInt(), in.readInt()));
+                }
+                return new PlaceRequest<>(PlaceRequest.RequestType.SUBSCRIBE, regions.toArray(new PlaceRegion[0]));
+            case OWNER:
+                int id = in.readInt();
+                String name = in.readUTF();
+                //ids are announced in order, so a new one is always the next
+                if (id < 0 || id > this.remoteOwners.size()) {
+                    throw new StreamCorruptedException("Bad owner id " + id);
+                }
+                while (this.remoteOwners.size() <= id) {
+                    this.remoteOwners.add("");
+                }
+                this.remoteOwners.set(id, name);
+                return null;
+            default:
+                //a frame from a newer version of the protocol; skip it
+                in.skipBytes(length);
+                return null;
+        }
+    }
+
+    /**
+     * Write a tile frame, announcing the owner first if needed.
+     *
+     * @param type the frame type
+     * @param tile the tile
+     * @param out where the frames go
+     * @throws IOException if the write fails
+     */
+    private void tile(int type, PlaceTile tile, DataOutputStream out) throws IOException {
+        int owner = announce(tile, out);
+        writeTile(tile, owner);
+        frame(type, out);
+    }
+
+    /**
+     * Write a batch of tiles as one frame, announcing any new owners first.
+     *
+     * @param tiles the tiles
+     * @param out where the frames go
+     * @throws IOException if the write fails
+     */
+    private void tiles(PlaceTile[] tiles, DataOutputStream out) throws IOException {
+        int[] owners = new int[tiles.length];
+        for (int i = 0; i < tiles.length; ++i) {
+            owners[i] = announce(tiles[i], out);
+        }
+        this.payload.writeInt(tiles.length);
+        for (int i = 0; i < tiles.length; ++i) {
+            writeTile(tiles[i], owners[i]);
+        }
+        frame(TILES_CHANGED, out);
+    }
+
+    /**
+     * Send an OWNER frame for a tile's owner if the other end hasn't had one.
+     *
+     * @param tile the tile
+     * @param out where the frames go
+     * @return the owner's id on this connection
+     * @throws IOException if the write fails
+     */
+    private int announce(PlaceTile tile, DataOutputStream out) throws IOException {
+        int owner = this.owners.intern(tile.getOwner());
+        if (owner >= this.wireIds.length) {
+            this.wireIds = Arrays.copyOf(this.wireIds, Math.max(owner + 1, this.wireIds.length * 2));
+        }
+        if (this.wireIds[owner] == 0) {
+            this.payload.writeInt(this.announced);
+            this.payload.writeUTF(tile.getOwner());
+            frame(OWNER, out);
+            this.wireIds[owner] = ++this.announced;
+        }
+        return this.wireIds[owner] - 1;
+    }
+
+    /**
+     * Write a tile record into the scratch payload.
+     *
+     * @param tile the tile
+     * @param owner the owner's id
+     * @throws IOException if the write fails
+     */
+    private void writeTile(PlaceTile tile, int owner) throws IOException {
+        this.payload.writeInt(tile.getRow());
+        this.payload.writeInt(tile.getCol());
+        this.payload.writeByte(tile.getColor().getNumber());
+        this.payload.writeInt(owner);
+        this.payload.writeLong(tile.getTime());
+        if (this.version >= 3) {
+            this.payload.writeLong(tile.getSeq());
+        }
+    }
+
+    /**
+     * The size of a tile record in the agreed version of the protocol.
+     *
+     * @return the size in bytes
+     */
+    private int tileRecord() {
+        return this.version >= 3 ? SEQ_TILE_RECORD : TILE_RECORD;
+    }
+
+    /**
+     * Read a tile record.
+     *
+     * @param in the payload
+     * @return the tile, with the owner's name filled in
+     * @throws IOException if the read fails or the record is garbage
+     */
+    private PlaceTile readTile(DataInput in) throws IOException {
+        int row = in.readInt();
+        int col = in.readInt();
+        int color = in.readUnsignedByte();
+        int owner = in.readInt();
+        long time = in.readLong();
+        long seq = this.version >= 3 ? in.readLong() : 0;
+        if (color >= PlaceColor.TOTAL_COLORS) {
+            throw new StreamCorruptedException("Bad color " + color);
+        }
+        String name = owner >= 0 && owner < this.remoteOwners.size() ? this.remoteOwners.get(owner) : "";
+        PlaceTile tile = new PlaceTile(row, col, name, PlaceColor.values()[color], time);
+        tile.setSeq(seq);
+        return tile;
+    }
+
+    /**
+     * Write the scratch payload out as a frame and empty the scratch.
+     *
+     * @param type the frame type
+     * @param out where the frame goes
+     * @throws IOException if the write fails
+     */
+    private void frame(int type, DataOutputStream out) throws IOException {
+        out.writeInt(this.scratch.size() + 1);
+        out.writeByte(type);
+        this.scratch.writeTo(out);
+        if (this.scratch.size() > SCRATCH_LIMIT) {
+            //don't hang on to a board sized buffer for the life of the connection
+            this.scratch = new ByteArrayOutputStream();
+            this.payload = new DataOutputStream(this.scratch);
+        } else {
+            this.scratch.reset();
+        }
+    }
+}
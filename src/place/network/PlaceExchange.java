@@ -0,0 +1,47 @@
+package place.network;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * One end of a connection between a Place client and the server.  Requests
+ * go in one side and come out the other; how they look on the wire depends
+ * on what the two ends agreed on when they connected (see
+ * {@link PlaceProtocol}).
+ *
+ * Sending may be done from any thread.  Receiving should only be done by
+ * the one thread that reads the connection.
+ */
+public interface PlaceExchange extends Closeable {
+    /**
+     * Send a request to the other end and flush it.
+     *
+     * @param request the request
+     * @throws IOException if the connection fails
+     */
+    void send(PlaceRequest<?> request) throws IOException;
+
+    /**
+     * Wait for the next request from the other end.
+     *
+     * @return the request
+     * @throws IOException if the connection fails or the data is garbage
+     */
+    PlaceRequest<?> receive() throws IOException;
+
+    /**
+     * Tells whether this connection uses the binary protocol or falls back
+     * on Java serialization.
+     *
+     * @return true for the binary protocol
+     */
+    boolean isBinary();
+
+    /**
+     * Get how many bytes have been sent to the other end, counting the
+     * protocol handshake.
+     *
+     * @return the count
+     */
+    long getBytesSent();
+}
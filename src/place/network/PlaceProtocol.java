@@ -0,0 +1,174 @@
+package place.network;
+
+import place.PlaceOwners;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.io.SequenceInputStream;
+import java.io.StreamCorruptedException;
+import java.net.Socket;
+
+/**
+ * Sets up connections between Place clients and the server.
+ *
+ * A client that wants the binary protocol starts by sending the 4 byte
+ * {@link #MAGIC} and the highest protocol version it speaks.  A server that
+ * understands answers with the magic and the version both ends will use,
+ * and from then on everything is {@link PlaceCodec} frames.
+ *
+ * Anything else the server receives first is taken to be the header of a
+ * Java object stream, and the connection falls back on serialized
+ * {@link PlaceRequest}s.  Likewise, a client that gets an object stream
+ * header back instead of the magic is talking to an old server, and
+ * reconnects using serialization.
+ */
+public final class PlaceProtocol {
+    /** "PLAC", the first thing a binary client sends */
+    public final static int MAGIC = 0x504C4143;
+    /**
+     * The highest version of the binary protocol we speak.  Version 2 sends
+     * the board as a compressed image; version 3 numbers the changes so a
+     * client can resume after losing its connection.
+     */
+    public final static int VERSION = 3;
+    /** Requests written between resets of a serialized connection, by default */
+    public final static int RESET_INTERVAL = 1024;
+    /** The first four bytes of a Java object stream */
+    private final static int OBJECT_STREAM = 0xACED0005;
+    /** Size of the socket buffers */
+    private final static int BUFFER = 8192;
+
+    /** Nothing to create; everything is static */
+    private PlaceProtocol() {}
+
+    /**
+     * Connect to a server, preferring the binary protocol.
+     *
+     * @param host hostname
+     * @param port port number
+     * @return the connection
+     * @throws IOException if the server can't be reached
+     */
+    public static PlaceExchange connect(String host, int port) throws IOException {
+        Socket socket = new Socket(host, port);
+        try {
+            CountingOutputStream sent = new CountingOutputStream(socket.getOutputStream());
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(sent, BUFFER));
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.flush();
+
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(socket.getInputStream(), BUFFER));
+            int reply = in.readInt();
+            if (reply == MAGIC) {
+                int version = in.readUnsignedByte();
+                if (version < 1 || version > VERSION) {
+                    throw new StreamCorruptedException("Server picked unknown version " + version);
+                }
+                return new BinaryExchange(socket, in, out, sent, new PlaceOwners(), version, false);
+            }
+            if (reply != OBJECT_STREAM) {
+                throw new StreamCorruptedException("Unknown server protocol");
+            }
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+
+        //an old server already choked on our magic, so start over
+        socket.close();
+        return connectSerialized(host, port);
+    }
+
+    /**
+     * Connect to a server using Java serialization only.
+     *
+     * @param host hostname
+     * @param port port number
+     * @return the connection
+     * @throws IOException if the server can't be reached
+     */
+    public static PlaceExchange connectSerialized(String host, int port) throws IOException {
+        Socket socket = new Socket(host, port);
+        try {
+            return new SerializedExchange(socket, socket.getInputStream(),
+                    new CountingOutputStream(socket.getOutputStream()), RESET_INTERVAL);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Work out which protocol a newly accepted client speaks.  This waits
+     * for the client's first bytes, so it should not be called on the
+     * thread that accepts connections.
+     *
+     * @param socket the accepted connection
+     * @param owners the dictionary owner ids are sent from (the board's)
+     * @return the connection
+     * @throws IOException if the client goes away or sends garbage
+     */
+    public static PlaceExchange accept(Socket socket, PlaceOwners owners) throws IOException {
+        return accept(socket, new byte[0], owners);
+    }
+
+    /**
+     * Work out which protocol a client speaks when some of its first bytes
+     * have already been read off the socket by someone else.
+     *
+     * @param socket the accepted connection
+     * @param greeting the bytes already read, in order
+     * @param owners the dictionary owner ids are sent from (the board's)
+     * @return the connection
+     * @throws IOException if the client goes away or sends garbage
+     */
+    public static PlaceExchange accept(Socket socket, byte[] greeting, PlaceOwners owners) throws IOException {
+        return accept(socket, greeting, owners, RESET_INTERVAL);
+    }
+
+    /**
+     * Work out which protocol a client speaks, choosing how often a
+     * serialized connection forgets the objects it has sent.
+     *
+     * @param socket the accepted connection
+     * @param greeting the bytes already read, in order
+     * @param owners the dictionary owner ids are sent from (the board's)
+     * @param resetInterval requests written between resets of a
+     *                      serialized connection's stream
+     * @return the connection
+     * @throws IOException if the client goes away or sends garbage
+     */
+    public static PlaceExchange accept(Socket socket, byte[] greeting, PlaceOwners owners,
+                                       int resetInterval) throws IOException {
+        InputStream raw = socket.getInputStream();
+        if (greeting.length > 0) {
+            raw = new SequenceInputStream(new ByteArrayInputStream(greeting), raw);
+        }
+        PushbackInputStream in = new PushbackInputStream(new BufferedInputStream(raw, BUFFER), 4);
+        DataInputStream data = new DataInputStream(in);
+        byte[] hello = new byte[4];
+        data.readFully(hello);
+
+        if (((hello[0] & 0xFF) << 24 | (hello[1] & 0xFF) << 16 | (hello[2] & 0xFF) << 8 | (hello[3] & 0xFF)) == MAGIC) {
+            int version = Math.min(data.readUnsignedByte(), VERSION);
+            CountingOutputStream sent = new CountingOutputStream(socket.getOutputStream());
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(sent, BUFFER));
+            out.writeInt(MAGIC);
+            out.writeByte(version);
+            out.flush();
+            return new BinaryExchange(socket, data, out, sent, owners, version, true);
+        }
+
+        //not ours; hand the bytes back to an object stream
+        in.unread(hello);
+        return new SerializedExchange(socket, in, new CountingOutputStream(socket.getOutputStream()), resetInterval);
+    }
+}
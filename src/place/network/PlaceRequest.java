@@ -1,5 +1,7 @@
 package place.network;
 
+import place.PlaceTile;
+
 import java.io.Serializable;
 
 /**
@@ -14,10 +16,17 @@ import java.io.Serializable;
  *      LOGIN: String<br>
  *      LOGIN_SUCCESS: String<br>
  *      TILE_CHANGED: PlaceTile object<br>
+ *      TILES_CHANGED: PlaceTile[] array<br>
+ *      TILE_INFO: PlaceTile object<br>
+ *      RESUME: PlaceSession object<br>
+ *      SUBSCRIBE: PlaceRegion[] array<br>
  *
  * @author Sean Strout @ RIT CS
  */
 public class PlaceRequest<E extends Serializable> implements Serializable {
+    /** Pinned to the value from before there were more request types, so old clients can still read requests */
+    private static final long serialVersionUID = 6908994432343544528L;
+
     public enum RequestType {
         /**
          * After a successful client login, the server will send the current
@@ -61,7 +70,45 @@ public class PlaceRequest<E extends Serializable> implements Serializable {
          * The clients should update their view of the board each time
          * a tile change arrives.
          */
-        TILE_CHANGED
+        TILE_CHANGED,
+
+        /**
+         * Used by the server to send the tile changes made during one
+         * broadcast tick together.  It will contain an array of Tile objects,
+         * at most one per position, holding the latest change there.  The
+         * clients should apply the whole array at once.
+         */
+        TILES_CHANGED,
+
+        /**
+         * Used by a client to ask for the owner and time of a tile, which a
+         * board sent as a compressed image leaves out.  It will contain a
+         * Tile object of which only the row and column matter.  The server
+         * answers with a TILE_INFO holding the whole tile.
+         */
+        TILE_INFO,
+
+        /**
+         * Used by a client coming back after losing its connection, in place
+         * of LOGIN.  It will contain a Session object with the username and
+         * the sequence number of the last change the client saw.  After the
+         * LOGIN_SUCCESS the server sends the changes made since as a
+         * TILES_CHANGED, or the whole BOARD if it no longer has them all.
+         */
+        RESUME,
+
+        /**
+         * Used by a client to say which parts of the board it wants to hear
+         * about.  It will contain an array of Region objects, and replaces
+         * whatever the client subscribed to before.  A client that never
+         * subscribes hears about the whole board.  Sent before LOGIN, it
+         * makes the BOARD hold only those regions; sent later, the server
+         * answers with a TILES_CHANGED holding the current tiles of the
+         * parts of the board the client didn't have yet.  Changes are sent
+         * for whole chunks of the board, so a client can hear about some
+         * tiles just outside its regions.
+         */
+        SUBSCRIBE
     }
 
     /** The request type */
@@ -94,6 +141,23 @@ public class PlaceRequest<E extends Serializable> implements Serializable {
      */
     public E getData() { return data; }
 
+    /**
+     * Get the tile changes a TILE_CHANGED or TILES_CHANGED request carries,
+     * so both can be handled the same way.
+     *
+     * @return the changed tiles, none for any other type of request
+     */
+    public PlaceTile[] getTiles() {
+        switch (type) {
+            case TILE_CHANGED:
+                return new PlaceTile[] { (PlaceTile) data };
+            case TILES_CHANGED:
+                return (PlaceTile[]) data;
+            default:
+                return new PlaceTile[0];
+        }
+    }
+
     /**
      * Utility method for debugging only.
      *
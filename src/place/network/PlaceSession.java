@@ -0,0 +1,56 @@
+package place.network;
+
+import java.io.Serializable;
+
+/**
+ * What a client that lost its connection tells the server when it comes
+ * back: who it is and the sequence number of the last change it saw.  The
+ * server then sends only the changes it missed.
+ */
+public class PlaceSession implements Serializable {
+    /** Pinned so both ends agree on sessions whatever compiled them */
+    private static final long serialVersionUID = 4220629352849211705L;
+
+    /** The username to log in as */
+    private final String username;
+    /** The sequence number of the last change the client saw */
+    private final long seq;
+
+    /**
+     * Create a session to resume.
+     *
+     * @param username the username to log in as
+     * @param seq the sequence number of the last change the client saw
+     */
+    public PlaceSession(String username, long seq) {
+        this.username = username;
+        this.seq = seq;
+    }
+
+    /**
+     * Get the username to log in as.
+     *
+     * @return the username
+     */
+    public String getUsername() { return this.username; }
+
+    /**
+     * Get the sequence number of the last change the client saw.
+     *
+     * @return the sequence number
+     */
+    public long getSeq() { return this.seq; }
+
+    /**
+     * Utility method for debugging only.
+     *
+     * @return the session as a string
+     */
+    @Override
+    public String toString() {
+        return "Session{" +
+                "username=" + this.username +
+                ", seq=" + this.seq +
+                '}';
+    }
+}
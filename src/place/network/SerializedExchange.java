@@ -0,0 +1,116 @@
+package place.network;
+
+import place.PlaceTile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.StreamCorruptedException;
+import java.net.Socket;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The original Place wire format: every request is a Java serialized
+ * {@link PlaceRequest}.  Kept for peers that don't speak the binary protocol.
+ *
+ * Those peers may predate batched tile changes, so a
+ * {@link PlaceRequest.RequestType#TILES_CHANGED} batch is sent to them as
+ * one TILE_CHANGED request per tile, flushed together.
+ *
+ * An object stream remembers every object written to it, on both ends, so
+ * that it can refer back to them.  Left alone that is everything ever sent
+ * over the connection, so the stream is reset every so many requests.  It
+ * is also reset after every board: the board is sent again when a client
+ * is resynchronized, and a back reference would hand the client its old
+ * copy.
+ */
+class SerializedExchange implements PlaceExchange {
+    /** The connection */
+    private final Socket socket;
+    /** Requests going out */
+    private final ObjectOutputStream out;
+    /** Counts the bytes that reach the socket */
+    private final CountingOutputStream sent;
+    /** Requests coming in */
+    private final ObjectInputStream in;
+    /** Held while a request is being written */
+    private final ReentrantLock sendLock = new ReentrantLock();
+    /** Requests written between resets of the stream */
+    private final int resetInterval;
+    /** Requests written since the stream was last reset */
+    private int sinceReset;
+
+    /**
+     * Set up the object streams.  The output stream goes first so its
+     * header reaches the other end before we wait for theirs.
+     *
+     * @param socket the connection
+     * @param in the socket's input (may already be wrapped)
+     * @param out the socket's output, counting bytes
+     * @param resetInterval requests written between resets of the stream
+     * @throws IOException if the stream headers can't be exchanged
+     */
+    SerializedExchange(Socket socket, InputStream in, CountingOutputStream out, int resetInterval)
+            throws IOException {
+        if (resetInterval < 1) {
+            throw new IllegalArgumentException("Reset interval must be at least 1");
+        }
+        this.socket = socket;
+        this.resetInterval = resetInterval;
+        this.sent = out;
+        this.out = new ObjectOutputStream(out);
+        this.out.flush();
+        this.in = new ObjectInputStream(in);
+    }
+
+    @Override
+    public void send(PlaceRequest<?> request) throws IOException {
+        //a lock rather than a monitor, so a virtual thread blocked on the
+        //socket doesn't pin its carrier
+        this.sendLock.lock();
+        try {
+            if (request.getType() == PlaceRequest.RequestType.TILES_CHANGED) {
+                for (PlaceTile tile : (PlaceTile[]) request.getData()) {
+                    this.out.writeUnshared(new PlaceRequest<>(PlaceRequest.RequestType.TILE_CHANGED, tile));
+                    ++this.sinceReset;
+                }
+            } else {
+                this.out.writeUnshared(request);
+                ++this.sinceReset;
+            }
+            if (this.sinceReset >= this.resetInterval || request.getType() == PlaceRequest.RequestType.BOARD) {
+                //forget what has been written, here and at the other end
+                this.out.reset();
+                this.sinceReset = 0;
+            }
+            this.out.flush();
+        } finally {
+            this.sendLock.unlock();
+        }
+    }
+
+    @Override
+    public PlaceRequest<?> receive() throws IOException {
+        try {
+            return (PlaceRequest<?>) this.in.readUnshared();
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new StreamCorruptedException("Not a PlaceRequest: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public boolean isBinary() {
+        return false;
+    }
+
+    @Override
+    public long getBytesSent() {
+        return this.sent.getCount();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.socket.close();
+    }
+}
@@ -0,0 +1,159 @@
+package place.server;
+
+import place.PlaceBoard;
+import place.PlaceException;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Point in time copies of the board, so a restart only has to replay the
+ * end of the {@link TileLog}.
+ *
+ * A snapshot is a file <code>snapshot-NNNNNNNN.bin</code>, where NNNNNNNN is
+ * the first log segment that still has to be replayed on top of it.  It
+ * holds a 16 byte header (magic, version, dimension, segment) followed by
+ * the board's columns as {@link PlaceBoard#writeColumns} lays them out, in
+ * little endian order so on most machines the copy to and from the mapped
+ * file is a straight memory copy.
+ *
+ * Snapshots are taken while tiles keep changing, so one may catch some
+ * changes made after its segment started and not others.  That is fine:
+ * replaying the segment puts every one of those tiles right.
+ */
+class BoardSnapshot {
+    /** "PSNP", the start of every snapshot */
+    private final static int MAGIC = 0x50534E50;
+    /** The snapshot format version */
+    private final static int VERSION = 1;
+    /** The size of the header */
+    private final static int HEADER = 16;
+
+    /** Nothing to create; everything is static */
+    private BoardSnapshot() {}
+
+    /**
+     * Write a snapshot of the board.  It is written under a temporary name
+     * and only counts once it has been {@link #publish published}, so a
+     * crash never leaves half of one.
+     *
+     * @param dir the log directory
+     * @param board the board
+     * @param segment the first log segment the snapshot doesn't cover
+     * @return the temporary file
+     * @throws IOException if it can't be written
+     */
+    static Path write(Path dir, PlaceBoard board, int segment) throws IOException {
+        long size = HEADER + PlaceBoard.columnsSize(board.DIM);
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("A " + board.DIM + "x" + board.DIM + " board is too big to snapshot");
+        }
+        Path temporary = dir.resolve(name(segment) + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            out.order(ByteOrder.LITTLE_ENDIAN);
+            out.putInt(MAGIC).putInt(VERSION).putInt(board.DIM).putInt(segment);
+            board.writeColumns(out);
+            out.force();
+        }
+        return temporary;
+    }
+
+    /**
+     * Give a written snapshot its real name and delete the ones before it.
+     *
+     * @param temporary the file {@link #write} returned
+     * @throws IOException if it can't be renamed
+     */
+    static void publish(Path temporary) throws IOException {
+        String name = temporary.getFileName().toString();
+        Path file = temporary.resolveSibling(name.substring(0, name.length() - ".tmp".length()));
+        Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        for (Path snapshot : list(file.getParent())) {
+            if (snapshot.compareTo(file) < 0) {
+                Files.deleteIfExists(snapshot);
+            }
+        }
+    }
+
+    /**
+     * Load the newest snapshot into a board.
+     *
+     * @param dir the log directory
+     * @param board the board, whose owner dictionary is already loaded
+     * @return the first log segment to replay on top of it, or 0 if there
+     *         is no snapshot
+     * @throws PlaceException if the snapshot doesn't belong to this board
+     * @throws IOException if it can't be read
+     */
+    static int load(Path dir, PlaceBoard board) throws PlaceException, IOException {
+        List<Path> snapshots = list(dir);
+        if (snapshots.isEmpty()) {
+            return 0;
+        }
+        Path file = snapshots.get(snapshots.size() - 1);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER) {
+                throw new PlaceException(file + " is not a board snapshot");
+            }
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            in.order(ByteOrder.LITTLE_ENDIAN);
+            if (in.getInt() != MAGIC) {
+                throw new PlaceException(file + " is not a board snapshot");
+            }
+            if (in.getInt() != VERSION) {
+                throw new PlaceException(file + " is from another version of the server");
+            }
+            int dim = in.getInt();
+            if (dim != board.DIM) {
+                throw new PlaceException(file + " was written for a " + dim + "x" + dim + " board");
+            }
+            int segment = in.getInt();
+            if (size != HEADER + PlaceBoard.columnsSize(dim)) {
+                throw new PlaceException(file + " is the wrong size");
+            }
+            board.readColumns(in);
+            return segment;
+        }
+    }
+
+    /**
+     * The snapshots in a directory, oldest first.
+     *
+     * @param dir the log directory
+     * @return the snapshots
+     * @throws IOException if the directory can't be read
+     */
+    private static List<Path> list(Path dir) throws IOException {
+        List<Path> snapshots = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "snapshot-*.bin")) {
+            for (Path file : files) {
+                snapshots.add(file);
+            }
+        }
+        Collections.sort(snapshots);
+        return snapshots;
+    }
+
+    /**
+     * The file name of a snapshot.
+     *
+     * @param segment the first log segment the snapshot doesn't cover
+     * @return the name
+     */
+    private static String name(int segment) {
+        return String.format("snapshot-%08d.bin", segment);
+    }
+}
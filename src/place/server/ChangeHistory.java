@@ -0,0 +1,207 @@
+package place.server;
+
+import place.PlaceTile;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Numbers the tile changes and keeps the latest of them, both to broadcast
+ * them in order and so a client that lost its connection can be sent just
+ * the ones it missed instead of the whole board.
+ *
+ * Changes are numbered one after the other, so the history is a ring
+ * indexed by sequence number: adding one overwrites the change the ring's
+ * capacity before it.  Changes are made on many threads at once and can
+ * be added out of order, so the ring is drained by one thread at a time,
+ * only ever up to the first number that hasn't been added yet.  That way
+ * changes go out in the order they were numbered, with no gaps.  A change
+ * isn't added until everything the capacity before it has been drained.
+ */
+class ChangeHistory {
+    /** The changes, each at its sequence number modulo the capacity */
+    private final AtomicReferenceArray<PlaceTile> changes;
+    /**
+     * The log number of each change.  It is written before the change and
+     * read after it, so the change's slot orders it.
+     */
+    private final long[] records;
+    /** How many changes a reconnecting client may have missed */
+    private final int keep;
+    /** The sequence number the first change comes after */
+    private final long start;
+    /** The sequence number of the newest change handed out */
+    private final AtomicLong newest;
+    /** Every change up to this sequence number has been drained */
+    private volatile long drained;
+
+    /**
+     * Create an empty history.
+     *
+     * @param capacity how many changes the ring holds, which is also how
+     *                 many may wait to be drained
+     * @param keep how many changes a reconnecting client may have missed,
+     *             at most the capacity
+     * @param start the sequence number the first change comes after
+     */
+    ChangeHistory(int capacity, int keep, long start) {
+        this.changes = new AtomicReferenceArray<>(capacity);
+        this.records = new long[capacity];
+        this.keep = Math.min(keep, capacity);
+        this.start = start;
+        this.newest = new AtomicLong(start);
+        this.drained = start;
+    }
+
+    /**
+     * Hand out the next sequence number.
+     *
+     * @return the number
+     */
+    long next() {
+        return this.newest.incrementAndGet();
+    }
+
+    /**
+     * Tells whether a change can be added without overwriting one that
+     * hasn't been drained.
+     *
+     * @param seq the change's sequence number
+     * @return true if there is room
+     */
+    boolean hasRoom(long seq) {
+        return seq - this.drained <= this.changes.length();
+    }
+
+    /**
+     * Add a numbered change.  There must be {@link #hasRoom room} for it.
+     *
+     * @param tile the change
+     * @param record its number in the log, or 0
+     */
+    void add(PlaceTile tile, long record) {
+        int slot = slot(tile.getSeq());
+        this.records[slot] = record;
+        this.changes.set(slot, tile);
+    }
+
+    /**
+     * Tells whether there are changes waiting to be drained.
+     *
+     * @return true if there are
+     */
+    boolean hasWaiting() {
+        return isAdded(this.drained + 1);
+    }
+
+    /**
+     * Get the changes that have been added since the last drain, up to the
+     * first one that hasn't.  Only one thread may drain at a time.
+     *
+     * @return the changes, oldest first, or null if there are none
+     */
+    Drained drain() {
+        long from = this.drained;
+        long to = from;
+        while (isAdded(to + 1)) {
+            ++to;
+        }
+        if (to == from) {
+            return null;
+        }
+        PlaceTile[] tiles = new PlaceTile[(int) (to - from)];
+        long record = 0;
+        for (int i = 0; i < tiles.length; ++i) {
+            int slot = slot(from + 1 + i);
+            tiles[i] = this.changes.get(slot);
+            record = Math.max(record, this.records[slot]);
+        }
+        //the slots may be reused from here on
+        this.drained = to;
+        return new Drained(tiles, to, record);
+    }
+
+    /**
+     * Get the sequence number up to which the changes have been drained.
+     * Every client is sent the changes after it with the next broadcast.
+     *
+     * @return the sequence number
+     */
+    long drained() {
+        return this.drained;
+    }
+
+    /**
+     * Get the drained changes made after a sequence number, oldest first.
+     * The rest reach every client with the next broadcast.
+     *
+     * @param seq the sequence number of the last change a client saw
+     * @return the changes since, or null if they are no longer all here (or
+     *         the number was never handed out) and the client needs more
+     */
+    PlaceTile[] since(long seq) {
+        long newest = this.drained;
+        //changes handed out but not drained may already have taken the
+        //slots of the oldest ones
+        long window = Math.min(this.keep, this.changes.length() - (this.newest.get() - newest));
+        if (seq < this.start || seq > newest || newest - seq > window) {
+            return null;
+        }
+        PlaceTile[] missed = new PlaceTile[(int) (newest - seq)];
+        for (int i = 0; i < missed.length; ++i) {
+            PlaceTile tile = this.changes.get(slot(seq + 1 + i));
+            //read after the slot may have been reused; then it is gone
+            if (tile == null || tile.getSeq() != seq + 1 + i) {
+                return null;
+            }
+            missed[i] = tile;
+        }
+        return missed;
+    }
+
+    /**
+     * Tells whether a change has been added.
+     *
+     * @param seq the change's sequence number
+     * @return true if its slot holds it
+     */
+    private boolean isAdded(long seq) {
+        PlaceTile tile = this.changes.get(slot(seq));
+        return tile != null && tile.getSeq() == seq;
+    }
+
+    /**
+     * Where a change sits in the ring.
+     *
+     * @param seq the change's sequence number
+     * @return the index
+     */
+    private int slot(long seq) {
+        return (int) (seq % this.changes.length());
+    }
+
+    /**
+     * A run of changes taken out of the history to be broadcast.
+     */
+    static class Drained {
+        /** The changes, oldest first */
+        final PlaceTile[] tiles;
+        /** The sequence number of the last of them */
+        final long seq;
+        /** The highest log number among them */
+        final long record;
+
+        /**
+         * Create a drained run.
+         *
+         * @param tiles the changes, oldest first
+         * @param seq the sequence number of the last of them
+         * @param record the highest log number among them
+         */
+        Drained(PlaceTile[] tiles, long seq, long record) {
+            this.tiles = tiles;
+            this.seq = seq;
+            this.record = record;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package place.server;
+
+import place.network.PlaceRequest;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * What the server needs from a connected client, whichever engine is
+ * running the connection.
+ */
+interface ClientConnection extends Closeable {
+    /**
+     * returns the user's Username
+     *
+     * @return the user's username, or the empty string before login
+     */
+    String getUsername();
+
+    /**
+     * Set the user's username once they have logged in.
+     *
+     * @param username the user's username
+     */
+    void setUsername(String username);
+
+    /**
+     * Get the owner id the server gave this user at login.
+     *
+     * @return the user's id in the board's owner dictionary
+     */
+    int getOwnerId();
+
+    /**
+     * Set the owner id the server gave this user at login.
+     *
+     * @param ownerId the user's id in the board's owner dictionary
+     */
+    void setOwnerId(int ownerId);
+
+    /**
+     * Send a request to this client.
+     *
+     * @param request the request
+     * @throws IOException if the client can't be reached
+     */
+    void send(PlaceRequest<?> request) throws IOException;
+
+    /**
+     * Get how many requests are waiting to be written to this client.
+     *
+     * @return the count
+     */
+    int getQueueDepth();
+
+    /**
+     * Get how many bytes have been written to this client.
+     *
+     * @return the count
+     */
+    long getBytesSent();
+}
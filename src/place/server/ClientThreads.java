@@ -1,21 +1,24 @@
 package place.server;
 
 import place.PlaceBoard;
-import place.PlaceTile;
+import place.network.PlaceExchange;
+import place.network.PlaceProtocol;
 import place.network.PlaceRequest;
 
 import java.io.*;
 import java.net.Socket;
 
-public class ClientThreads extends Thread implements Runnable, Closeable {
+public class ClientThreads extends Thread implements Runnable, ClientConnection {
     private Socket clientSocket;
     private String username;
+    private int ownerId;
     private PlaceServer server;
-    private ObjectOutputStream output;
+    private volatile PlaceExchange exchange;
     private boolean go = true;
-    private ObjectInputStream input;
     private PlaceBoard board;
     private boolean goWhile = true;
+    private byte[] greeting;
+    private OutboundQueue queue;
 
     /**
      * creates a new client thread
@@ -25,16 +28,26 @@ public class ClientThreads extends Thread implements Runnable, Closeable {
      * @param server
      */
     public ClientThreads(Socket socket, String username, PlaceServer server) {
+        this(socket, new byte[0], username, server);
+    }
+
+    /**
+     * creates a new client thread for a connection whose first bytes have
+     * already been read by someone else
+     *
+     * @param socket
+     * @param greeting the bytes already read from the socket
+     * @param username
+     * @param server
+     */
+    public ClientThreads(Socket socket, byte[] greeting, String username, PlaceServer server) {
+        this.greeting = greeting;
         this.clientSocket = socket;
         this.username = username;
         System.out.println("User " + username + " connected on socket " + clientSocket);
         this.board = server.getBoard();
         this.server = server;
-        try {
-            this.output = new ObjectOutputStream(clientSocket.getOutputStream());
-            this.input = new ObjectInputStream(clientSocket.getInputStream());
-        } catch (IOException e) {
-        }
+        this.queue = server.newQueue();
     }
 
 
@@ -52,10 +65,26 @@ public class ClientThreads extends Thread implements Runnable, Closeable {
      *
      * @return the user's username
      */
+    @Override
     public String getUsername() {
         return username;
     }
 
+    @Override
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
+    @Override
+    public int getOwnerId() {
+        return ownerId;
+    }
+
+    @Override
+    public void setOwnerId(int ownerId) {
+        this.ownerId = ownerId;
+    }
+
     /**
      * Close all of the threads/server connections
      *
@@ -63,85 +92,102 @@ public class ClientThreads extends Thread implements Runnable, Closeable {
      */
     @Override
     public void close() throws IOException {
-        this.server.signOut(this.username);
+        this.queue.close();
+        this.server.signOut(this.username, this);
         this.clientSocket.close();
-        output.close();
-        input.close();
     }
 
     /**
      * runs client thread
      */
     public void run() {
+        try {
+            //find out which protocol the client speaks before anything is sent
+            this.exchange = PlaceProtocol.accept(clientSocket, greeting, board.getOwners(),
+                    server.getConfig().getResetInterval());
+        } catch (IOException e) {
+            try {
+                clientSocket.close();
+            } catch (IOException ignored) {
+            }
+            return;
+        }
+        //replies and broadcasts are written by a thread of their own
+        server.startThread(this::write);
         try {
             PlaceRequest<?> request;
             while (go) {
                 try {
                     while(goWhile) {
-                        request = (PlaceRequest<?>) input.readObject();
+                        request = exchange.receive();
 
                         checkRequest(request);
                     }
 
                 } finally {
-                    close();
+                    //a refused client is hung up on by the writer, once it has sent why
+                    if (goWhile) {
+                        close();
+                    }
                 }
             }
-        } catch (IOException | InterruptedException | ClassNotFoundException ignored) {
+        } catch (IOException ignored) {
         }
     }
 
-    protected ObjectOutputStream getOutput() {
-        return output;
+    /**
+     * Queue a request for this client.  It never waits on the socket.
+     *
+     * @param request the request
+     */
+    @Override
+    public void send(PlaceRequest<?> request) {
+        if (!queue.offer(request)) {
+            //too slow to keep up; the writer will hang up
+            System.err.println(username + " can't keep up. Disconnecting.");
+        }
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return queue.size();
     }
 
+    @Override
+    public long getBytesSent() {
+        PlaceExchange exchange = this.exchange;
+        return exchange == null ? 0 : exchange.getBytesSent();
+    }
 
     /**
-     * a method w/a switch case to check client requests and execute them
-     *
-     * @param request
+     * Write queued requests to the client until the connection closes.
      */
-    private void checkRequest(PlaceRequest<?> request) throws IOException, InterruptedException {
-
-        System.out.println(request);
-        PlaceRequest.RequestType type = request.getType();
-        PlaceRequest<?> servercheck;
-        System.out.println("top of check request");
-        switch (type) {
-            case LOGIN:
-                username = (String) request.getData();
-                if (server.login(username, this)) {
-                    board = server.getBoard();
-                    servercheck = new PlaceRequest<>(PlaceRequest.RequestType.BOARD, board);
-                    output.writeObject(servercheck);
-                    output.flush();
-                    }
-                else{
-                    close();
-                }
-
-                break;
-            case BOARD:
-            case LOGIN_SUCCESS:
-            case TILE_CHANGED:
-                break;
-            case CHANGE_TILE: {
-                try {
-                    server.tileUpdate((PlaceTile) request.getData());
-                }
-                catch (ArrayIndexOutOfBoundsException e)
-                {
-                    break;
-                }
-                board = server.getBoard();
-                Thread.sleep(500);
-                break;
+    private void write() {
+        try {
+            PlaceRequest<?> request;
+            while ((request = queue.take()) != null) {
+                exchange.send(request);
             }
-            case ERROR: {
-                this.goWhile=false;
+        } catch (IOException | InterruptedException ignored) {
+        } finally {
+            try {
                 close();
-                break;
+            } catch (IOException ignored) {
             }
         }
     }
-}
\ No newline at end of file
+
+
+    /**
+     * a method to check client requests and hand them to the server
+     *
+     * @param request
+     */
+    private void checkRequest(PlaceRequest<?> request) throws IOException {
+        if (!server.handle(this, request)) {
+            this.go = false;
+            this.goWhile = false;
+            queue.finish();
+        }
+    }
+}
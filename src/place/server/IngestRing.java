@@ -0,0 +1,170 @@
+package place.server;
+
+import place.PlaceTile;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Carries tile changes from the threads that receive them to the one
+ * thread that applies them, for the pipeline way of applying changes.
+ *
+ * The ring's slots are made once.  A publisher claims the next position
+ * with one atomic increment, fills its slot and marks it published with the
+ * position, so publishers never lock and never allocate.  The writer takes
+ * everything published since it last looked, up to the first slot that is
+ * still being filled, and applies it as one batch.  A publisher that finds
+ * the ring full waits for the writer to catch up.
+ */
+class IngestRing {
+    /** How long a publisher waits for room before looking again, in nanoseconds */
+    private final static long ROOM_WAIT = 10_000;
+
+    /** The changes, each at its position modulo the capacity */
+    private final PlaceTile[] tiles;
+    /** The owner id of each change */
+    private final int[] owners;
+    /** When each change was published, from {@link System#nanoTime()} */
+    private final long[] times;
+    /** The position each slot was last published at */
+    private final AtomicLongArray published;
+    /** The last position claimed */
+    private final AtomicLong claimed = new AtomicLong();
+    /** Every change up to this position has been taken by the writer */
+    private volatile long taken;
+    /** The writer, once it has started waiting */
+    private volatile Thread writer;
+    /** Set while the writer is parked, waiting for a change */
+    private volatile boolean sleeping;
+
+    /**
+     * Create an empty ring.
+     *
+     * @param capacity how many changes may wait for the writer
+     */
+    IngestRing(int capacity) {
+        this.tiles = new PlaceTile[capacity];
+        this.owners = new int[capacity];
+        this.times = new long[capacity];
+        this.published = new AtomicLongArray(capacity);
+        //no position is published yet, including 0
+        for (int slot = 0; slot < capacity; ++slot) {
+            this.published.set(slot, -1);
+        }
+    }
+
+    /**
+     * Hand a change to the writer, waiting if the ring is full.  Any number
+     * of threads may publish at once.
+     *
+     * @param tile the change
+     * @param ownerId the id of the user that made it
+     */
+    void publish(PlaceTile tile, int ownerId) {
+        long time = System.nanoTime();
+        long position = this.claimed.incrementAndGet();
+        while (position - this.taken > this.tiles.length) {
+            LockSupport.parkNanos(ROOM_WAIT);
+        }
+        int slot = slot(position);
+        this.tiles[slot] = tile;
+        this.owners[slot] = ownerId;
+        this.times[slot] = time;
+        this.published.set(slot, position);
+        if (this.sleeping) {
+            LockSupport.unpark(this.writer);
+        }
+    }
+
+    /**
+     * Wait until there are changes to take.  Only the writer calls this.
+     *
+     * @return the position of the last change that can be taken, after the
+     *         last one taken
+     * @throws InterruptedException if the writer is told to stop
+     */
+    long await() throws InterruptedException {
+        this.writer = Thread.currentThread();
+        long next = this.taken + 1;
+        while (!isPublished(next)) {
+            this.sleeping = true;
+            //a publisher that missed the flag has published by now
+            if (!isPublished(next)) {
+                LockSupport.park(this);
+            }
+            this.sleeping = false;
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+        long last = next;
+        while (last - this.taken < this.tiles.length && isPublished(last + 1)) {
+            ++last;
+        }
+        return last;
+    }
+
+    /**
+     * Get a change that has been published.
+     *
+     * @param position its position
+     * @return the change
+     */
+    PlaceTile tile(long position) {
+        return this.tiles[slot(position)];
+    }
+
+    /**
+     * Get the owner id of a change that has been published.
+     *
+     * @param position its position
+     * @return the owner id
+     */
+    int owner(long position) {
+        return this.owners[slot(position)];
+    }
+
+    /**
+     * Get when a change that has been published was handed over.
+     *
+     * @param position its position
+     * @return the time, from {@link System#nanoTime()}
+     */
+    long time(long position) {
+        return this.times[slot(position)];
+    }
+
+    /**
+     * Give the slots of the changes the writer has applied back to the
+     * publishers.
+     *
+     * @param position the position of the last change applied
+     */
+    void release(long position) {
+        for (long done = this.taken + 1; done <= position; ++done) {
+            this.tiles[slot(done)] = null;
+        }
+        this.taken = position;
+    }
+
+    /**
+     * Tells whether a position has been published.
+     *
+     * @param position the position
+     * @return true if its slot holds it
+     */
+    private boolean isPublished(long position) {
+        return this.published.get(slot(position)) == position;
+    }
+
+    /**
+     * Where a position sits in the ring.
+     *
+     * @param position the position
+     * @return the index
+     */
+    private int slot(long position) {
+        return (int) (position % this.tiles.length);
+    }
+}
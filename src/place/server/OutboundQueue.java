@@ -0,0 +1,252 @@
+package place.server;
+
+import place.PlaceBoard;
+import place.PlaceTile;
+import place.network.PlaceRequest;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The requests waiting to be written to one client.  Whoever produces a
+ * request only ever adds it here; the connection's own writer takes them
+ * off and does the socket I/O, so a client that reads slowly holds up
+ * nobody but itself.
+ *
+ * The queue is bounded.  What happens when it fills up is decided by the
+ * server's {@link PlaceServerConfig.SlowConsumerPolicy}.
+ */
+class OutboundQueue {
+    /** The waiting requests, oldest first */
+    private final ArrayDeque<PlaceRequest<?>> requests = new ArrayDeque<>();
+    /** How many requests may wait */
+    private final int capacity;
+    /** What to do when the queue is full */
+    private final PlaceServerConfig.SlowConsumerPolicy policy;
+    /** The board sent to clients that have to be resynchronized */
+    private final PlaceBoard board;
+    /** Guards everything */
+    private final ReentrantLock lock = new ReentrantLock();
+    /** Signalled when a request arrives or the queue closes */
+    private final Condition ready = this.lock.newCondition();
+    /** Set once nothing more will be sent */
+    private boolean closed;
+    /** Set once nothing more will be queued, but what is waiting is still to be sent */
+    private boolean finishing;
+
+    /**
+     * Create an empty queue.
+     *
+     * @param capacity how many requests may wait
+     * @param policy what to do when the queue is full
+     * @param board the server's board, for resynchronizing
+     */
+    OutboundQueue(int capacity, PlaceServerConfig.SlowConsumerPolicy policy, PlaceBoard board) {
+        this.capacity = capacity;
+        this.policy = policy;
+        this.board = board;
+    }
+
+    /**
+     * Add a request.  This never waits for the client.
+     *
+     * @param request the request
+     * @return false if the client can't keep up and should be disconnected
+     */
+    boolean offer(PlaceRequest<?> request) {
+        this.lock.lock();
+        try {
+            if (this.closed || this.finishing) {
+                return true;
+            }
+            if (this.requests.size() >= this.capacity) {
+                if (this.policy == PlaceServerConfig.SlowConsumerPolicy.DISCONNECT) {
+                    close();
+                    return false;
+                }
+                if (this.policy == PlaceServerConfig.SlowConsumerPolicy.COALESCE) {
+                    coalesce();
+                }
+                //resynchronizing, or nothing to merge; start over
+                if (this.requests.size() >= this.capacity) {
+                    resync();
+                    if (isTiles(request)) {
+                        //the tiles are already on the board that will be sent
+                        return true;
+                    }
+                }
+            }
+            this.requests.add(request);
+            this.ready.signal();
+            return true;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Take the oldest request without waiting.
+     *
+     * @return the request, or null if there is none
+     */
+    PlaceRequest<?> poll() {
+        this.lock.lock();
+        try {
+            return this.requests.poll();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Take the oldest request, waiting for one if need be.
+     *
+     * @return the request, or null once the queue is closed or finished
+     * @throws InterruptedException if the writer is interrupted
+     */
+    PlaceRequest<?> take() throws InterruptedException {
+        this.lock.lock();
+        try {
+            while (this.requests.isEmpty() && !this.closed && !this.finishing) {
+                this.ready.await();
+            }
+            return this.closed ? null : this.requests.poll();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Take nothing more, but leave what is waiting to be sent, such as the
+     * error telling a refused client why.  The writer hangs up once it has
+     * sent it all, when {@link #take()} gives null or {@link #isFinished()}
+     * says so.
+     */
+    void finish() {
+        this.lock.lock();
+        try {
+            this.finishing = true;
+            this.ready.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Tells whether everything left by {@link #finish()} has been taken.
+     *
+     * @return true once the writer should hang up
+     */
+    boolean isFinished() {
+        this.lock.lock();
+        try {
+            return this.finishing && this.requests.isEmpty();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Throw away whatever is waiting and wake the writer so it can stop.
+     */
+    void close() {
+        this.lock.lock();
+        try {
+            this.closed = true;
+            this.requests.clear();
+            this.ready.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Get how many requests are waiting.
+     *
+     * @return the count
+     */
+    int size() {
+        this.lock.lock();
+        try {
+            return this.requests.size();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Tells whether the queue has been closed.
+     *
+     * @return true once closed
+     */
+    boolean isClosed() {
+        this.lock.lock();
+        try {
+            return this.closed;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Keep only the newest change to each tile.  Changes queued before the
+     * last board are already on it and are dropped; the rest are merged
+     * into one batch at the end of the queue.  Called with the lock held.
+     */
+    private void coalesce() {
+        int lastBoard = -1;
+        int position = 0;
+        for (PlaceRequest<?> queued : this.requests) {
+            if (queued.getType() == PlaceRequest.RequestType.BOARD) {
+                lastBoard = position;
+            }
+            ++position;
+        }
+
+        Map<Integer, PlaceTile> newest = new LinkedHashMap<>();
+        position = 0;
+        Iterator<PlaceRequest<?>> oldestFirst = this.requests.iterator();
+        while (oldestFirst.hasNext()) {
+            PlaceRequest<?> queued = oldestFirst.next();
+            if (isTiles(queued)) {
+                oldestFirst.remove();
+                if (position > lastBoard) {
+                    for (PlaceTile tile : queued.getTiles()) {
+                        newest.put(tile.getRow() * this.board.DIM + tile.getCol(), tile);
+                    }
+                }
+            }
+            ++position;
+        }
+        if (!newest.isEmpty()) {
+            this.requests.add(new PlaceRequest<>(PlaceRequest.RequestType.TILES_CHANGED,
+                    newest.values().toArray(new PlaceTile[0])));
+        }
+    }
+
+    /**
+     * Drop every queued tile change and send the whole board instead.  The
+     * board is only encoded when the writer gets to it, so it has every
+     * change made up to then.  Called with the lock held.
+     */
+    private void resync() {
+        this.requests.removeIf(queued ->
+                isTiles(queued) || queued.getType() == PlaceRequest.RequestType.BOARD);
+        this.requests.add(new PlaceRequest<>(PlaceRequest.RequestType.BOARD, this.board));
+    }
+
+    /**
+     * Tells whether a request carries tile changes.
+     *
+     * @param request the request
+     * @return true for a single change or a batch
+     */
+    private static boolean isTiles(PlaceRequest<?> request) {
+        return request.getType() == PlaceRequest.RequestType.TILE_CHANGED ||
+                request.getType() == PlaceRequest.RequestType.TILES_CHANGED;
+    }
+}
@@ -2,22 +2,37 @@ package place.server;
 
 import place.PlaceBoard;
 import place.PlaceException;
+import place.PlaceRegion;
 import place.PlaceTile;
+import place.metrics.MetricsEndpoint;
 import place.network.PlaceRequest;
+import place.network.PlaceSession;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
 import java.net.ServerSocket;
-import java.util.HashMap;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * The Place server is run on the command line as:
  *
- * $ java PlaceServer port DIM
+ * $ java PlaceServer port DIM [options]
  *
  * Where port is the port number of the host and DIM is the square dimension
- * of the board.
+ * of the board.  The options are listed in {@link PlaceServerConfig#OPTIONS}.
  *
  * @author Sean Strout @ RIT CS
  * @author Miguel Rosario
@@ -26,21 +41,114 @@ import java.util.Map;
  */
 
 public class PlaceServer implements Closeable {
+    /**
+     * A client that fell behind is sent the chunks that changed instead of
+     * the board if they are at most one in this many of the board's chunks.
+     */
+    private final static int RESYNC_CHUNK_SHARE = 8;
+    /** How many locks tile changes are spread over */
+    private final static int STRIPES = 64;
+    /**
+     * The fewest changes the history holds, since it also holds the changes
+     * waiting for the next broadcast tick
+     */
+    private final static int MIN_HISTORY = 16384;
+    /** How long a change waits for room in a full history, in nanoseconds */
+    private final static long ROOM_WAIT = 50_000;
+    /** How many changes may wait for the writer thread in pipeline mode */
+    private final static int INGEST_CAPACITY = 65536;
 
     private ServerSocket server;
-    private Map<String, ClientThreads> clients;
-    private static int dim;
-    private static int port;
+    private SelectorEngine selector;
+    private Map<String, ClientConnection> clients;
+    private PlaceServerConfig config;
     private PlaceBoard board;
-    private boolean running = true;
-
-    private PlaceServer(int port) throws PlaceException {
+    private volatile boolean running = true;
+    /** Makes the threads that run blocking connections */
+    private ThreadFactory threads;
+    /**
+     * Held while a tile is changed, one per group of chunks, so changes in
+     * different parts of the board are made at the same time.  Whatever
+     * needs the board to stand still, such as a client logging in, holds
+     * them all.  They are locks rather than monitors so virtual threads
+     * blocked on a socket inside one don't pin their carrier thread.
+     */
+    private final ReentrantLock[] stripes = new ReentrantLock[STRIPES];
+    /** Held by whoever is draining the history into a broadcast */
+    private final ReentrantLock flushLock = new ReentrantLock();
+    /** Carries changes to the writer thread, or null if they are applied where they arrive */
+    private IngestRing ingest;
+    /** Applies the queued changes, or null if there is no queue */
+    private Thread writer;
+    /** Broadcasts the pending tiles every tick, or null to send each at once */
+    private ScheduledExecutorService ticker;
+    /** Keeps each user to their share of tile changes */
+    private RateLimiter limiter;
+    /** Saves the tile changes, or null if the board is only in memory */
+    private TileLog log;
+    /** Takes snapshots of a logged board, or null if there are none */
+    private ScheduledExecutorService snapshots;
+    /**
+     * The board's sequence number when the server started.  The count
+     * starts from the clock, in thousandths of a millisecond, so numbers
+     * from before a restart are always older than the new ones and can't
+     * be mistaken for them.
+     */
+    private long startSeq;
+    /** Numbers the changes and holds them until they are broadcast and after */
+    private ChangeHistory history;
+    /** Which clients hear about which parts of the board */
+    private Subscriptions subscriptions;
+    /** What the server counts and times */
+    private final ServerMetrics metrics = new ServerMetrics();
+    /** Serves the metrics, or null if they aren't served */
+    private MetricsEndpoint endpoint;
+
+    private PlaceServer(PlaceServerConfig config) throws PlaceException {
         try {
-            this.server = new ServerSocket(port);
-            clients = new HashMap<>();
-            board = new PlaceBoard(dim);
-
+            this.config = config;
+            clients = new ConcurrentHashMap<>();
+            board = new PlaceBoard(config.getDim());
+            if (config.getDataDir() != null) {
+                log = TileLog.open(config.getDataDir(), board);
+            }
+            limiter = new RateLimiter(config.getTileRate(), config.getTileBurst());
+            board.setSeq(getTime() * 1000);
+            startSeq = board.getSeq();
+            history = new ChangeHistory(Math.max(config.getHistorySize(), MIN_HISTORY),
+                    config.getHistorySize(), startSeq);
+            for (int i = 0; i < stripes.length; ++i) {
+                stripes[i] = new ReentrantLock();
+            }
+            subscriptions = new Subscriptions(board);
+            threads = config.getEngine() == PlaceServerConfig.Engine.VIRTUAL ?
+                    virtualThreads() : Thread::new;
+
+            if (config.getEngine() == PlaceServerConfig.Engine.NIO) {
+                this.selector = new SelectorEngine(this, config.getPort(), config.getEventLoops());
+            } else {
+                this.server = new ServerSocket(config.getPort());
+            }
 
+            if (config.getTickMillis() > 0) {
+                ticker = scheduler("place-ticker");
+                ticker.scheduleAtFixedRate(this::flushTiles,
+                        config.getTickMillis(), config.getTickMillis(), TimeUnit.MILLISECONDS);
+            }
+            if (config.getApplyMode() == PlaceServerConfig.ApplyMode.PIPELINE) {
+                ingest = new IngestRing(INGEST_CAPACITY);
+                writer = new Thread(this::applyQueued, "place-writer");
+                writer.setDaemon(true);
+                writer.start();
+            }
+            if (log != null && config.getSnapshotSeconds() > 0) {
+                snapshots = scheduler("place-snapshot");
+                snapshots.scheduleWithFixedDelay(this::snapshot,
+                        config.getSnapshotSeconds(), config.getSnapshotSeconds(), TimeUnit.SECONDS);
+            }
+            if (config.getMetricsPort() > 0) {
+                endpoint = new MetricsEndpoint(config.getMetricsPort(), () -> metrics.scrape(clients.values()));
+            }
         } catch (IOException e) {
             throw new PlaceException(e);
         }
@@ -51,31 +159,168 @@ public class PlaceServer implements Closeable {
      * Method that starts the running of the server and creates a thread with no username
      */
     private void run() {
+        if (this.selector != null) {
+            this.selector.run();
+            return;
+        }
+        if (config.getEngine() == PlaceServerConfig.Engine.VIRTUAL) {
+            //the accept loop gets a virtual thread too
+            Thread acceptor = threads.newThread(this::accept);
+            acceptor.start();
+            try {
+                acceptor.join();
+            } catch (InterruptedException ignored) {
+            }
+            return;
+        }
+        accept();
+    }
+
+    /**
+     * Accept connections and start a thread for each until the server closes.
+     */
+    private void accept() {
         while (running) {
-            while (running) {
-                try {
-                    new Thread(new ClientThreads(server.accept(), "", this)).start();
-                } catch (IOException e) {
+            try {
+                startClient(new ClientThreads(server.accept(), "", this));
+            } catch (IOException e) {
+                if (running) {
                     e.printStackTrace();
-                } catch (Exception ignored) {
                 }
+            } catch (Exception ignored) {
             }
         }
     }
 
+    /**
+     * Start the thread that runs a blocking client connection.
+     *
+     * @param client the client
+     */
+    void startClient(ClientThreads client) {
+        startThread(client);
+    }
+
+    /**
+     * Start a thread of the kind this server's engine uses.
+     *
+     * @param task what the thread should do
+     */
+    void startThread(Runnable task) {
+        threads.newThread(task).start();
+    }
+
+    /**
+     * Make the queue a new connection's outgoing requests wait in.
+     *
+     * @return an empty queue
+     */
+    OutboundQueue newQueue() {
+        return new OutboundQueue(config.getQueueCapacity(), config.getSlowConsumers(), board);
+    }
+
+    /**
+     * Make a single daemon thread that runs tasks on a schedule.
+     *
+     * @param name the thread's name
+     * @return the scheduler
+     */
+    private static ScheduledExecutorService scheduler(String name) {
+        return Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, name);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Get a factory for virtual threads.  They only exist from Java 21 on,
+     * so they are looked up rather than linked against.
+     *
+     * @return the factory
+     * @throws PlaceException if this Java has no virtual threads
+     */
+    private static ThreadFactory virtualThreads() throws PlaceException {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            return (ThreadFactory) Class.forName("java.lang.Thread$Builder")
+                    .getMethod("factory").invoke(builder);
+        } catch (NoSuchMethodException | ClassNotFoundException | IllegalAccessException |
+                InvocationTargetException e) {
+            throw new PlaceException("Virtual threads need Java 21 or later", e);
+        }
+    }
+
+    /**
+     * Start a server in the background, for running one inside another
+     * program such as a benchmark.
+     *
+     * @param config the server settings; port 0 picks a free port
+     * @return the running server
+     * @throws PlaceException if the server can't be started
+     */
+    public static PlaceServer start(PlaceServerConfig config) throws PlaceException {
+        PlaceServer server = new PlaceServer(config);
+        Thread thread = new Thread(server::run, "place-server");
+        thread.setDaemon(true);
+        thread.start();
+        return server;
+    }
+
+    /**
+     * The port the server is listening on.
+     *
+     * @return the port
+     */
+    public int getPort() {
+        return this.selector != null ? this.selector.getPort() : this.server.getLocalPort();
+    }
 
         /**
          * Method to close the server when called.
          */
     public void close(){
         //close the server
+        this.running = false;
+        if (this.ticker != null) {
+            this.ticker.shutdownNow();
+        }
+        if (this.writer != null) {
+            this.writer.interrupt();
+        }
+        if (this.snapshots != null) {
+            this.snapshots.shutdown();
+        }
+        if (this.endpoint != null) {
+            this.endpoint.close();
+        }
         try {
-            this.server.close();
+            if (this.selector != null) {
+                this.selector.close();
+            } else {
+                this.server.close();
+            }
         }
         //yes
         catch (IOException e) {
             e.printStackTrace();
         }
+        //whatever is still buffered goes to disk
+        if (this.log != null) {
+            try {
+                this.log.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * The settings the server was started with.
+     * @return the configuration
+     */
+    PlaceServerConfig getConfig() {
+        return config;
     }
 
     /**
@@ -90,31 +335,35 @@ public class PlaceServer implements Closeable {
     /**
      * Method for a thread (user) to log into the server.
      * Checks the threads to ensure 2 users with the same name
-     * cannot join the server.
+     * cannot join the server.  Nothing is locked while the reply is sent.
      * @param username user
      * @param client the client thread trying to join
      * @return boolean
      */
-    public synchronized boolean login(String username, ClientThreads client) throws IOException {
+    public boolean login(String username, ClientConnection client) {
 
         System.out.println("login");
         //Fail message to output if reached
         String fail = "Login error. There is a user with the name \"" + username + "\" already";
 
-        //For each key value of the client, check if
-        if(clients.containsKey(username))
+        //Claim the name; if someone else has it the claim fails
+        if(clients.putIfAbsent(username, client) != null) {
+            metrics.login(false);
             try {
                 //Send a new serverError
                 PlaceRequest<?> serverError = new PlaceRequest<>(PlaceRequest.RequestType.ERROR,
                         fail);
-                client.getOutput().writeObject(serverError);
-                client.getOutput().flush();
+                client.send(serverError);
                 System.out.println(serverError + (username));
+            } catch (IOException ignored) {
+            }
+            return false;
+        }
+        client.setUsername(username);
+        metrics.login(true);
 
-                return false;
-            } catch (IOException ignored){}
-        //Put the client user and output stream
-        clients.put(username,client);
+        //Give the user an owner id so their tiles don't each carry the name
+        client.setOwnerId(board.getOwners().intern(username));
 
         //State that they connected properly
         System.err.println("Connection Success.");
@@ -125,8 +374,7 @@ public class PlaceServer implements Closeable {
         //Display the names of the users
         System.err.println("Client list: " + clients.keySet());
         try {
-            client.getOutput().writeObject(new PlaceRequest<>(PlaceRequest.RequestType.LOGIN_SUCCESS, "Welcome " + username));
-            client.getOutput().flush();
+            client.send(new PlaceRequest<>(PlaceRequest.RequestType.LOGIN_SUCCESS, "Welcome " + username));
         }
         catch (IOException ignored) {
 
@@ -138,11 +386,22 @@ public class PlaceServer implements Closeable {
      * removes the user from the list and notifies the server
      *
      * @param username the user signing out
+     * @param client the connection that is going away
      */
-    public void signOut(String username)
+    public void signOut(String username, ClientConnection client)
     {
-        //remove the user from the client list
-        this.clients.remove(username);
+        //stop sending it changes, logged in or not
+        lockAll();
+        try {
+            subscriptions.leave(client);
+        } finally {
+            unlockAll();
+        }
+
+        //remove the user from the client list, unless the name belongs to someone else
+        if (!this.clients.remove(username, client)) {
+            return;
+        }
 
         //state that the user diconnected properly
         System.err.println(username + " disconnected from server.");
@@ -159,32 +418,388 @@ public class PlaceServer implements Closeable {
      * Throws a "error" - red - message that shows who logged off.
      * @param username user
      */
-    public synchronized void updateLogins(String username){
+    public void updateLogins(String username){
         //Remove the user who left
+        ClientConnection client = clients.remove(username);
+        if (client == null) {
+            return;
+        }
         try {
-            clients.get(username).close();
-            clients.remove(username);
+            client.close();
             System.err.println(username + " logged off." + clients.keySet());
 
         }
         catch (IOException e){}
     }
 
+    /**
+     * Carry out a request from a client.  This is the same whichever
+     * engine is running the connection.
+     *
+     * @param client the client that sent the request
+     * @param request the request
+     * @return false if the connection should be closed
+     * @throws IOException if the client can't be answered
+     */
+    boolean handle(ClientConnection client, PlaceRequest<?> request) throws IOException {
+        switch (request.getType()) {
+            case LOGIN:
+                //no tile may be broadcast to the new client before its board
+                lockAll();
+                try {
+                    if (!login((String) request.getData(), client)) {
+                        return false;
+                    }
+                    subscriptions.join(client);
+                    client.send(new PlaceRequest<>(PlaceRequest.RequestType.BOARD, boardFor(client)));
+                } finally {
+                    unlockAll();
+                }
+                return true;
+            case RESUME:
+                //a client back from a lost connection; send what it missed
+                PlaceSession session = (PlaceSession) request.getData();
+                lockAll();
+                try {
+                    if (!login(session.getUsername(), client)) {
+                        return false;
+                    }
+                    subscriptions.join(client);
+                    client.send(catchUp(client, session.getSeq()));
+                } finally {
+                    unlockAll();
+                }
+                return true;
+            case SUBSCRIBE:
+                lockAll();
+                try {
+                    boolean joined = !client.getUsername().isEmpty();
+                    BitSet added = subscriptions.subscribe(client, (PlaceRegion[]) request.getData(), joined);
+                    if (!added.isEmpty()) {
+                        //the tiles it didn't have, as of now; changes from here on follow.
+                        //they go unnumbered, since a client that has seen every change
+                        //would otherwise take them for ones it already has
+                        client.send(new PlaceRequest<>(PlaceRequest.RequestType.TILES_CHANGED,
+                                tilesIn(subscriptions.regions(added), 0)));
+                    }
+                } finally {
+                    unlockAll();
+                }
+                return true;
+            case CHANGE_TILE:
+                //only logged in users may paint
+                if (client.getUsername().isEmpty()) {
+                    metrics.rejected(ServerMetrics.Rejection.NOT_LOGGED_IN);
+                    return true;
+                }
+                switch (limiter.acquire(client.getUsername())) {
+                    case WARN:
+                        metrics.rejected(ServerMetrics.Rejection.TOO_FAST);
+                        client.send(new PlaceRequest<>(PlaceRequest.RequestType.ERROR,
+                                "Too fast: at most " + config.getTileRate() + " tiles a second"));
+                        return true;
+                    case DROP:
+                        metrics.rejected(ServerMetrics.Rejection.TOO_FAST);
+                        return true;
+                    default:
+                        break;
+                }
+                //a tile off the board must not take a sequence number
+                PlaceTile change = (PlaceTile) request.getData();
+                if (!board.isValid(change)) {
+                    metrics.rejected(ServerMetrics.Rejection.OFF_BOARD);
+                    return true;
+                }
+                metrics.accepted();
+                tileUpdate(change, client.getOwnerId());
+                return true;
+            case TILE_INFO:
+                //a client with a compressed board wants a tile's owner and time
+                PlaceTile wanted = (PlaceTile) request.getData();
+                if (!client.getUsername().isEmpty() && board.isValid(wanted)) {
+                    client.send(new PlaceRequest<>(PlaceRequest.RequestType.TILE_INFO,
+                            board.getTile(wanted.getRow(), wanted.getCol())));
+                }
+                return true;
+            case ERROR:
+                return false;
+            default:
+                return true;
+        }
+    }
+
     /**
      * Method to update the tile that was moved/changed
      * a tile has a time for the timestamp that gets updated based on when
      * the input occurs.
      *
-     * once the time is stamped, set the board with the tile.
+     * once the time is stamped and the change numbered, set the board with
+     * the tile and add it to the history, under the lock for its part of
+     * the board only, so changes elsewhere go ahead at the same time.
+     *
+     * then send the tile, or leave it for the next broadcast tick.
      *
-     * output a success message and then send the tile.
+     * in pipeline mode the change is only queued here, for the writer
+     * thread to do all of that.
      * @param tile tile
+     * @param ownerId the owner id the server gave the user at login
+     * @rit.pre the tile is on the board
+     */
+    public void tileUpdate(PlaceTile tile, int ownerId){
+        if (ingest != null) {
+            ingest.publish(tile, ownerId);
+            return;
+        }
+        long start = System.nanoTime();
+        ReentrantLock stripe = stripe(tile.getRow(), tile.getCol());
+        stripe.lock();
+        try {
+            apply(tile, ownerId);
+        } finally {
+            stripe.unlock();
+        }
+        metrics.applied(System.nanoTime() - start);
+        if (ticker == null) {
+            flushTiles();
+        }
+    }
+
+    /**
+     * Apply queued changes as they come, a batch at a time, until the
+     * server closes.  This is the writer thread of pipeline mode; it is
+     * the only thread that changes the board, so it holds every tile lock
+     * for a batch only to keep logins and snapshots out of the middle of
+     * it.
+     */
+    private void applyQueued() {
+        long done = 0;
+        try {
+            while (running) {
+                long last = ingest.await();
+                lockAll();
+                try {
+                    for (long position = done + 1; position <= last; ++position) {
+                        apply(ingest.tile(position), ingest.owner(position));
+                    }
+                } finally {
+                    unlockAll();
+                }
+                //each change waited for the ones before it in the batch
+                long now = System.nanoTime();
+                for (long position = done + 1; position <= last; ++position) {
+                    metrics.applied(now - ingest.time(position));
+                }
+                ingest.release(last);
+                done = last;
+                if (ticker == null) {
+                    flushTiles();
+                }
+            }
+        } catch (InterruptedException ignored) {
+            //the server is closing
+        }
+    }
+
+    /**
+     * Number a change, stamp it and set it on the board, then log it and
+     * add it to the history for the next broadcast.  Called with the lock
+     * for the tile held.
+     *
+     * @param tile the change
+     * @param ownerId the owner id the server gave the user at login
      */
-    public synchronized void tileUpdate(PlaceTile tile){
+    private void apply(PlaceTile tile, int ownerId) {
+        long seq = history.next();
+        while (!history.hasRoom(seq)) {
+            //too many changes waiting for the tick; send them early
+            flushTiles();
+            LockSupport.parkNanos(ROOM_WAIT);
+        }
         tile.setTime(getTime());
-        board.setTile(tile);
-        System.out.println("The tile has been updated.");
-        sendTile(tile);
+        tile.setOwner(board.getOwners().getName(ownerId));
+        tile.setSeq(seq);
+        board.setTile(tile, ownerId);
+        long record = log != null ? log.append(tile, ownerId) : 0;
+        history.add(tile, record);
+    }
+
+    /**
+     * Broadcast the tiles changed since the last time, in the order they
+     * were numbered.  One thread does this at a time; if another is busy
+     * it picks these changes up too.
+     *
+     * With a tick the changes go out as one batch, keeping only the latest
+     * change to each tile, and if the board is being logged the batch waits
+     * until it is on disk, so no client sees a change that a crash could
+     * undo.  With no tick each change goes out at once.
+     */
+    private void flushTiles() {
+        do {
+            if (!flushLock.tryLock()) {
+                return;
+            }
+            try {
+                ChangeHistory.Drained drained = history.drain();
+                if (drained == null) {
+                    return;
+                }
+                //clients that log in from here on are sent a board with these
+                board.setSeq(drained.seq);
+                if (ticker == null) {
+                    for (PlaceTile tile : drained.tiles) {
+                        sendTile(tile);
+                    }
+                } else {
+                    //a later change to the same tile replaces the earlier one
+                    Map<Integer, PlaceTile> latest = new LinkedHashMap<>();
+                    for (PlaceTile tile : drained.tiles) {
+                        latest.put(tile.getRow() * board.DIM + tile.getCol(), tile);
+                    }
+                    //painting carries on while the log catches up
+                    if (log != null) {
+                        log.awaitWritten(drained.record);
+                    }
+                    broadcast(new PlaceRequest<>(PlaceRequest.RequestType.TILES_CHANGED,
+                            latest.values().toArray(new PlaceTile[0])));
+                }
+            } finally {
+                flushLock.unlock();
+            }
+            //a change added while the lock was held may have found it taken
+        } while (ticker == null && history.hasWaiting());
+    }
+
+    /**
+     * Get the lock for changes to a tile.  Tiles in the same chunk share a
+     * lock, and so do the two tiles that share a byte of the color plane,
+     * which on a board of odd width may be in different chunks.
+     *
+     * @param row the tile's row
+     * @param col the tile's column
+     * @return the lock
+     */
+    private ReentrantLock stripe(int row, int col) {
+        int cell = (row * board.DIM + col) & ~1;
+        return stripes[board.chunk(cell / board.DIM, cell % board.DIM) % STRIPES];
+    }
+
+    /**
+     * Hold every tile lock, so no change is in the middle of being made and
+     * none is made until {@link #unlockAll()}.  They are always taken in the
+     * same order.
+     */
+    private void lockAll() {
+        for (ReentrantLock stripe : stripes) {
+            stripe.lock();
+        }
+    }
+
+    /**
+     * Let tile changes carry on after {@link #lockAll()}.
+     */
+    private void unlockAll() {
+        for (int i = stripes.length - 1; i >= 0; --i) {
+            stripes[i].unlock();
+        }
+    }
+
+    /**
+     * Save a snapshot of the logged board and delete the log it replaces.
+     * Tiles keep changing while the board is copied; the log from the
+     * snapshot's segment on puts right any tile caught halfway.
+     */
+    void snapshot() {
+        try {
+            long start = System.nanoTime();
+            int segment = log.rollOver();
+            Path snapshot = BoardSnapshot.write(config.getDataDir(), board, segment);
+            //a change the copy caught may not be logged yet, and its owner's
+            //name with it; wait out the change being made, then the log
+            lockAll();
+            unlockAll();
+            log.sync();
+            BoardSnapshot.publish(snapshot);
+            log.deleteSegmentsBefore(segment);
+            System.out.println("Snapshot of the board saved in " + (System.nanoTime() - start) / 1_000_000 + " ms.");
+        } catch (IOException e) {
+            System.err.println("The board snapshot failed; the log is kept.");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Work out what a client coming back needs to catch up, cheapest first:
+     * the changes it missed, if the history still has them all; otherwise
+     * the chunks that changed since, if there aren't too many; otherwise
+     * the whole board.  Only what the client subscribed to is sent.
+     * Called with every tile lock held.
+     *
+     * @param client the client
+     * @param seq the sequence number of the last change it saw
+     * @return the request to send it
+     */
+    private PlaceRequest<?> catchUp(ClientConnection client, long seq) {
+        BitSet chunks = subscriptions.get(client);
+        PlaceTile[] missed = history.since(seq);
+        if (missed != null) {
+            List<PlaceTile> wanted = new ArrayList<>(missed.length);
+            for (PlaceTile tile : missed) {
+                if (subscriptions.covers(chunks, tile)) {
+                    wanted.add(tile);
+                }
+            }
+            return new PlaceRequest<>(PlaceRequest.RequestType.TILES_CHANGED, wanted.toArray(new PlaceTile[0]));
+        }
+        //numbers from before the restart or from nowhere tell us nothing
+        if (seq >= startSeq && seq <= history.drained()) {
+            BitSet changed = board.changedChunks(seq);
+            if (chunks != null) {
+                changed.and(chunks);
+            }
+            //whole chunks of tile records are bulky next to the board's
+            //compressed image, so only worth it for a few
+            if ((long) changed.cardinality() * RESYNC_CHUNK_SHARE <= board.getChunkCount()) {
+                return new PlaceRequest<>(PlaceRequest.RequestType.TILES_CHANGED,
+                        tilesIn(subscriptions.regions(changed), history.drained()));
+            }
+        }
+        return new PlaceRequest<>(PlaceRequest.RequestType.BOARD, boardFor(client));
+    }
+
+    /**
+     * The board to send a client that has just logged in: the whole board,
+     * or only the parts it subscribed to.  Called with every tile lock held.
+     *
+     * @param client the client
+     * @return the board
+     */
+    private PlaceBoard boardFor(ClientConnection client) {
+        BitSet chunks = subscriptions.get(client);
+        return chunks == null ? board : board.copyOf(subscriptions.regions(chunks));
+    }
+
+    /**
+     * Get the current tiles of some regions of the board.  A client catching
+     * up is given the number of the last change drained for broadcast: the
+     * tiles hold at least every change up to it, and the client is sent the
+     * ones after.  Called with every tile lock held.
+     *
+     * @param regions the regions, which must be on the board
+     * @param seq the number the tiles carry, 0 for none
+     * @return the tiles
+     */
+    private PlaceTile[] tilesIn(PlaceRegion[] regions, long seq) {
+        List<PlaceTile> tiles = new ArrayList<>();
+        for (PlaceRegion region : regions) {
+            for (int row = region.getRow(); row < region.getRow() + region.getHeight(); ++row) {
+                for (int col = region.getCol(); col < region.getCol() + region.getWidth(); ++col) {
+                    PlaceTile tile = board.getTile(row, col);
+                    tile.setSeq(seq);
+                    tiles.add(tile);
+                }
+            }
+        }
+        return tiles.toArray(new PlaceTile[0]);
     }
 
     /**
@@ -200,22 +815,44 @@ public class PlaceServer implements Closeable {
      * @param tile tile
      */
     private void sendTile(PlaceTile tile) {
-        //For each username send the message
-        clients.keySet().forEach(username -> {
-            System.out.println("Sending " + tile + " to " + username);
-            // try to move the tile.
-            try {
-                //write the object with the new tile that has been changed
-                clients.get(username).getOutput().writeObject(new PlaceRequest<>
-                        (PlaceRequest.RequestType.TILE_CHANGED, tile));
+        broadcast(new PlaceRequest<>(PlaceRequest.RequestType.TILE_CHANGED, tile));
+    }
 
-                //flushed
-                    clients.get(username).getOutput().flush();
+    /**
+     * Send tile changes to every client that can see them.  Clients that
+     * didn't subscribe get the request as it is; the rest get the changes
+     * in their chunks, so the cost follows how many clients are looking
+     * rather than how many are connected.  The request is only queued for
+     * each client; their own writers send it, so a slow client can't hold
+     * up the others.
+     * @param request a TILE_CHANGED or TILES_CHANGED request
+     */
+    private void broadcast(PlaceRequest<?> request) {
+        long start = System.nanoTime();
+        int sent = 0;
+        //For each user queue the message
+        for (ClientConnection client : subscriptions.everywhere()) {
+            send(client, request);
+            ++sent;
+        }
+        PlaceTile[] tiles = request.getTiles();
+        Map<ClientConnection, List<PlaceTile>> routed = subscriptions.route(tiles);
+        routed.forEach((client, wanted) -> send(client, wanted.size() == tiles.length ?
+                request : new PlaceRequest<>(PlaceRequest.RequestType.TILES_CHANGED, wanted.toArray(new PlaceTile[0]))));
+        metrics.broadcast(System.nanoTime() - start, sent + routed.size());
+    }
 
-            } catch (IOException e) {
+    /**
+     * Queue a broadcast for one client.
+     * @param client the client
+     * @param request the request
+     */
+    private static void send(ClientConnection client, PlaceRequest<?> request) {
+        try {
+            client.send(request);
+        } catch (IOException e) {
             e.printStackTrace();
         }
-        });
     }
 
 
@@ -226,24 +863,27 @@ public class PlaceServer implements Closeable {
      * @param args the command line arguments
      */
     public static void main(String[] args) {
-        // if the args aren't correct throw a fit
-        if(args.length != 2) {
+        PlaceServerConfig config = null;
+        try {
+            config = PlaceServerConfig.parse(args);
+        } catch (PlaceException e) {
+            // if the args aren't correct throw a fit
+            System.err.println(e.getMessage());
             System.err.println("Please run the server as:");
-            System.err.println("$ java PlaceGUI host port username");
+            System.err.println("$ java PlaceServer port DIM [options]");
+            System.err.println("where the options are:");
+            System.err.print(PlaceServerConfig.OPTIONS);
             System.exit(0);
         }
 
-        //Taking the values from the passed args.
-        port = Integer.parseInt(args[0]);
-        dim = Integer.parseInt(args[1]);
-
         //try to make a server
-        try ( PlaceServer server = new PlaceServer(port) ) {
+        try ( PlaceServer server = new PlaceServer(config) ) {
             System.out.println("The server is now running!");
             server.run();
         }
         //otherwise error
-        catch (PlaceException ignored) {
+        catch (PlaceException e) {
+            System.err.println(e.getMessage());
         }
 
     }
@@ -0,0 +1,304 @@
+package place.server;
+
+import place.PlaceException;
+import place.network.PlaceProtocol;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * The settings the server is started with.  The port and dimension come
+ * first on the command line, followed by any number of options of the form
+ * <code>--name=value</code>, which are listed in {@link #OPTIONS}.
+ */
+public class PlaceServerConfig {
+    /** What each option does, as the server's usage message prints them */
+    public final static String OPTIONS = """
+            --engine=threads|virtual|nio   how connections are run (default threads)
+            --loops=N                      event loop threads for the nio engine
+            --queue=N                      requests that may wait for one client
+            --slow=coalesce|resync|disconnect
+                                           what to do when a client's queue is full
+            --tick=MS                      how long tile changes are collected before
+                                           they are broadcast as one batch (default
+                                           20); 0 broadcasts each change at once
+            --reset=N                      requests written to a serialized client
+                                           between resets of its object stream
+            --rate=N                       tile changes each user may make a second
+                                           (default 2); 0 for no limit
+            --burst=N                      tile changes a user may make at once after
+                                           a quiet spell (default 4)
+            --data=DIR                     keep a log of the board in DIR so it
+                                           survives a restart (default: memory only)
+            --snapshot=SECONDS             how often the logged board is snapshotted
+                                           so the log can be cut short (default
+                                           300); 0 never snapshots
+            --history=N                    tile changes kept for clients that
+                                           reconnect (default 65536); one that missed
+                                           more gets the whole board
+            --apply=locks|pipeline         how tile changes are applied: by the
+                                           threads that receive them (default), or
+                                           queued for one writer thread
+            --metrics=PORT                 serve metrics in Prometheus text format at
+                                           http://localhost:PORT/metrics (default:
+                                           none)
+            """;
+
+    /** The ways the server can apply tile changes */
+    public enum ApplyMode {
+        /** Each change is applied by the thread that received it, under a lock for its chunk */
+        LOCKS,
+        /** Changes are queued in a ring and applied by one writer thread in batches */
+        PIPELINE
+    }
+
+    /** The ways the server can run its connections */
+    public enum Engine {
+        /** A thread per client, blocking on its socket */
+        THREADS,
+        /** A virtual thread per client (Java 21 or later) */
+        VIRTUAL,
+        /** A few selector threads shared by all clients */
+        NIO
+    }
+
+    /** What to do with a client that can't keep up with the broadcasts */
+    public enum SlowConsumerPolicy {
+        /** Merge queued changes to the same tile, resyncing if that isn't enough */
+        COALESCE,
+        /** Drop the queued changes and send the whole board again */
+        RESYNC,
+        /** Hang up on the client */
+        DISCONNECT
+    }
+
+    /** The port to listen on */
+    private int port;
+    /** The square dimension of the board */
+    private int dim;
+    /** How connections are run */
+    private Engine engine = Engine.THREADS;
+    /** Event loop threads for the nio engine */
+    private int eventLoops = Runtime.getRuntime().availableProcessors();
+    /** Requests that may wait for one client */
+    private int queueCapacity = 4096;
+    /** What to do when a client's queue is full */
+    private SlowConsumerPolicy slowConsumers = SlowConsumerPolicy.COALESCE;
+    /** Milliseconds of tile changes broadcast together, 0 for none */
+    private int tickMillis = 20;
+    /** Requests written to a serialized client between stream resets */
+    private int resetInterval = PlaceProtocol.RESET_INTERVAL;
+    /** Tile changes each user may make a second, 0 for no limit */
+    private int tileRate = 2;
+    /** Tile changes a user may make at once */
+    private int tileBurst = 4;
+    /** Where the board's log is kept, or null for none */
+    private Path dataDir;
+    /** Seconds between snapshots of a logged board, 0 for none */
+    private int snapshotSeconds = 300;
+    /** Tile changes kept for clients that reconnect */
+    private int historySize = 65536;
+    /** How tile changes are applied */
+    private ApplyMode applyMode = ApplyMode.LOCKS;
+    /** The port metrics are served on, 0 for none */
+    private int metricsPort;
+
+    /**
+     * Create a configuration with the default options.
+     *
+     * @param port the port to listen on
+     * @param dim the square dimension of the board
+     */
+    public PlaceServerConfig(int port, int dim) {
+        this.port = port;
+        this.dim = dim;
+    }
+
+    /**
+     * Read the configuration from the command line.
+     *
+     * @param args port, DIM, then options
+     * @return the configuration
+     * @throws PlaceException if an argument makes no sense
+     */
+    public static PlaceServerConfig parse(String[] args) throws PlaceException {
+        if (args.length < 2) {
+            throw new PlaceException("Expected a port and a dimension");
+        }
+        PlaceServerConfig config;
+        try {
+            config = new PlaceServerConfig(Integer.parseInt(args[0]), Integer.parseInt(args[1]));
+        } catch (NumberFormatException e) {
+            throw new PlaceException("The port and dimension must be numbers", e);
+        }
+        for (int i = 2; i < args.length; ++i) {
+            String arg = args[i];
+            int equals = arg.indexOf('=');
+            if (!arg.startsWith("--") || equals < 0) {
+                throw new PlaceException("Options look like --name=value, not " + arg);
+            }
+            config.set(arg.substring(2, equals), arg.substring(equals + 1));
+        }
+        return config;
+    }
+
+    /**
+     * Set one option.
+     *
+     * @param name the option name
+     * @param value the option value
+     * @throws PlaceException if the option is unknown or the value is bad
+     */
+    public void set(String name, String value) throws PlaceException {
+        try {
+            switch (name) {
+                case "engine":
+                    this.engine = Engine.valueOf(value.toUpperCase());
+                    break;
+                case "loops":
+                    this.eventLoops = positive(name, Integer.parseInt(value));
+                    break;
+                case "queue":
+                    this.queueCapacity = positive(name, Integer.parseInt(value));
+                    break;
+                case "slow":
+                    this.slowConsumers = SlowConsumerPolicy.valueOf(value.toUpperCase());
+                    break;
+                case "tick":
+                    this.tickMillis = notNegative(name, Integer.parseInt(value));
+                    break;
+                case "reset":
+                    this.resetInterval = positive(name, Integer.parseInt(value));
+                    break;
+                case "rate":
+                    this.tileRate = notNegative(name, Integer.parseInt(value));
+                    break;
+                case "burst":
+                    this.tileBurst = positive(name, Integer.parseInt(value));
+                    break;
+                case "data":
+                    this.dataDir = Paths.get(value);
+                    break;
+                case "snapshot":
+                    this.snapshotSeconds = notNegative(name, Integer.parseInt(value));
+                    break;
+                case "history":
+                    this.historySize = notNegative(name, Integer.parseInt(value));
+                    break;
+                case "apply":
+                    this.applyMode = ApplyMode.valueOf(value.toUpperCase());
+                    break;
+                case "metrics":
+                    this.metricsPort = notNegative(name, Integer.parseInt(value));
+                    break;
+                default:
+                    throw new PlaceException("Unknown option --" + name);
+            }
+        } catch (IllegalArgumentException e) {
+            throw new PlaceException("Bad value for --" + name + ": " + value, e);
+        }
+    }
+
+    /**
+     * Make sure a number is positive.
+     *
+     * @param name the option name, for the error
+     * @param value the value
+     * @return the value
+     */
+    private static int positive(String name, int value) {
+        if (value < 1) {
+            throw new IllegalArgumentException("--" + name + " must be at least 1");
+        }
+        return value;
+    }
+
+    /**
+     * Make sure a number isn't negative.
+     *
+     * @param name the option name, for the error
+     * @param value the value
+     * @return the value
+     */
+    private static int notNegative(String name, int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("--" + name + " can't be negative");
+        }
+        return value;
+    }
+
+    /**
+     * @return the port to listen on
+     */
+    public int getPort() { return this.port; }
+
+    /**
+     * @return the square dimension of the board
+     */
+    public int getDim() { return this.dim; }
+
+    /**
+     * @return how connections are run
+     */
+    public Engine getEngine() { return this.engine; }
+
+    /**
+     * @return how many event loop threads the nio engine uses
+     */
+    public int getEventLoops() { return this.eventLoops; }
+
+    /**
+     * @return how many requests may wait for one client
+     */
+    public int getQueueCapacity() { return this.queueCapacity; }
+
+    /**
+     * @return what to do when a client's queue is full
+     */
+    public SlowConsumerPolicy getSlowConsumers() { return this.slowConsumers; }
+
+    /**
+     * @return milliseconds of tile changes broadcast together, 0 for none
+     */
+    public int getTickMillis() { return this.tickMillis; }
+
+    /**
+     * @return requests written to a serialized client between stream resets
+     */
+    public int getResetInterval() { return this.resetInterval; }
+
+    /**
+     * @return tile changes each user may make a second, 0 for no limit
+     */
+    public int getTileRate() { return this.tileRate; }
+
+    /**
+     * @return tile changes a user may make at once after a quiet spell
+     */
+    public int getTileBurst() { return this.tileBurst; }
+
+    /**
+     * @return where the board's log is kept, or null to keep it in memory only
+     */
+    public Path getDataDir() { return this.dataDir; }
+
+    /**
+     * @return seconds between snapshots of a logged board, 0 for none
+     */
+    public int getSnapshotSeconds() { return this.snapshotSeconds; }
+
+    /**
+     * @return tile changes kept for clients that reconnect
+     */
+    public int getHistorySize() { return this.historySize; }
+
+    /**
+     * @return how tile changes are applied
+     */
+    public ApplyMode getApplyMode() { return this.applyMode; }
+
+    /**
+     * @return the local port metrics are served on, 0 for none
+     */
+    public int getMetricsPort() { return this.metricsPort; }
+}
@@ -0,0 +1,101 @@
+package place.server;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Limits how fast each user may change tiles.  Every username has a token
+ * bucket that fills at a steady rate up to a burst size, and each change
+ * takes a token.  A user who reconnects keeps their bucket, so hanging up
+ * doesn't buy a fresh burst.
+ *
+ * Checking costs a map lookup and a little arithmetic; nothing ever waits
+ * for tokens, so it works the same whichever engine runs the connection.
+ */
+class RateLimiter {
+    /** What became of a request */
+    enum Decision {
+        /** Go ahead */
+        ALLOW,
+        /** Refused; tell the client why */
+        WARN,
+        /** Refused, and the client has already been told */
+        DROP
+    }
+
+    /** Tokens added per second */
+    private final double rate;
+    /** The most tokens a bucket can hold */
+    private final double burst;
+    /** Every user's bucket */
+    private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+
+    /**
+     * Create a limiter.
+     *
+     * @param rate requests allowed per second, on average; 0 for no limit
+     * @param burst requests allowed at once after a quiet spell
+     */
+    RateLimiter(int rate, int burst) {
+        this.rate = rate;
+        this.burst = burst;
+    }
+
+    /**
+     * Take a token for one request.
+     *
+     * @param username who is asking
+     * @return whether the request may go ahead
+     */
+    Decision acquire(String username) {
+        if (this.rate == 0) {
+            return Decision.ALLOW;
+        }
+        return this.buckets.computeIfAbsent(username, name -> new Bucket(this.burst)).take(this);
+    }
+
+    /**
+     * One user's tokens.
+     */
+    private static class Bucket {
+        /** Tokens available */
+        private double tokens;
+        /** When the tokens were last topped up, in nanoseconds */
+        private long updated = System.nanoTime();
+        /** Set once a refusal has been reported, until a request is allowed */
+        private boolean warned;
+
+        /**
+         * Create a full bucket.
+         *
+         * @param tokens the burst size
+         */
+        Bucket(double tokens) {
+            this.tokens = tokens;
+        }
+
+        /**
+         * Top up the bucket for the time that has passed and take a token.
+         *
+         * @param limiter the rate and burst size
+         * @return whether the request may go ahead
+         */
+        synchronized Decision take(RateLimiter limiter) {
+            long now = System.nanoTime();
+            this.tokens = Math.min(limiter.burst, this.tokens + (now - this.updated) * limiter.rate / 1e9);
+            this.updated = now;
+            if (this.tokens >= 1) {
+                this.tokens -= 1;
+                this.warned = false;
+                return Decision.ALLOW;
+            }
+            //one error per run of refusals, so a client that never reads
+            //can't fill its queue with them
+            if (this.warned) {
+                return Decision.DROP;
+            }
+            this.warned = true;
+            return Decision.WARN;
+        }
+    }
+}
@@ -0,0 +1,328 @@
+package place.server;
+
+import place.network.PlaceCodec;
+import place.network.PlaceProtocol;
+import place.network.PlaceRequest;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A client connection run by a {@link SelectorEngine} event loop.  It reads
+ * binary protocol frames into a buffer as they arrive.  Outgoing requests
+ * wait in an {@link OutboundQueue} and are encoded by the loop, a buffer
+ * at a time, when the channel can take them.
+ *
+ * A client that doesn't open with the binary protocol's magic is speaking
+ * Java serialization, which can't be read without blocking.  Those
+ * connections are taken off the selector and given a {@link ClientThreads}
+ * of their own, so old clients keep working.
+ */
+class SelectorConnection implements ClientConnection {
+    /** Stop encoding queued requests once this many bytes are waiting */
+    private final static int WRITE_BATCH = 64 * 1024;
+
+    /** The server */
+    private final PlaceServer server;
+    /** The event loop that owns this connection */
+    private final SelectorEngine.EventLoop loop;
+    /** The connection */
+    private final SocketChannel channel;
+    /** The connection's registration with the loop's selector */
+    private final SelectionKey key;
+    /** Turns frames into requests and back; made once the version is agreed */
+    private PlaceCodec codec;
+    /** Bytes read but not yet made into requests */
+    private ByteBuffer in = ByteBuffer.allocate(1024);
+    /** Requests waiting to be written */
+    private final OutboundQueue out;
+    /** Encoded bytes the channel hasn't taken yet */
+    private ByteBuffer pending;
+    /** Set while the loop has been asked to write */
+    private final AtomicBoolean writeScheduled = new AtomicBoolean();
+    /** Where frames are encoded before being written */
+    private final ByteArrayOutputStream frames = new ByteArrayOutputStream();
+    /** Writes into the frame buffer */
+    private final DataOutputStream frameOut = new DataOutputStream(this.frames);
+    /** Whether the protocol handshake is done */
+    private boolean greeted;
+    /** Set once the connection is closed */
+    private boolean closed;
+    /** Set once the server has refused the client; it is closed after the reply is written */
+    private boolean refused;
+    /** Bytes written to the channel; only the loop writes it */
+    private volatile long bytesSent;
+    private volatile String username = "";
+    private volatile int ownerId;
+
+    /**
+     * Create a connection for a newly registered channel.
+     *
+     * @param server the server
+     * @param loop the loop that owns the channel
+     * @param channel the channel
+     * @param key the channel's key with the loop's selector
+     */
+    SelectorConnection(PlaceServer server, SelectorEngine.EventLoop loop, SocketChannel channel, SelectionKey key) {
+        this.server = server;
+        this.loop = loop;
+        this.channel = channel;
+        this.key = key;
+        this.out = server.newQueue();
+    }
+
+    @Override
+    public String getUsername() {
+        return this.username;
+    }
+
+    @Override
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
+    @Override
+    public int getOwnerId() {
+        return this.ownerId;
+    }
+
+    @Override
+    public void setOwnerId(int ownerId) {
+        this.ownerId = ownerId;
+    }
+
+    /**
+     * Queue a request for the client.  Safe to call from any thread; it
+     * never blocks on the socket.
+     *
+     * @param request the request
+     */
+    @Override
+    public void send(PlaceRequest<?> request) {
+        if (!this.out.offer(request)) {
+            //too slow to keep up; the loop will hang up
+            System.err.println(this.username + " can't keep up. Disconnecting.");
+        }
+        scheduleWrite();
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return this.out.size();
+    }
+
+    @Override
+    public long getBytesSent() {
+        return this.bytesSent;
+    }
+
+    /**
+     * Make sure the loop will look at the outgoing queue.
+     */
+    private void scheduleWrite() {
+        if (this.writeScheduled.compareAndSet(false, true)) {
+            this.loop.wantsWrite(this);
+        }
+    }
+
+    /**
+     * Read whatever has arrived and carry out any complete requests.
+     * Only called on the event loop.
+     */
+    void read() {
+        try {
+            if (this.channel.read(this.in) < 0) {
+                close();
+                return;
+            }
+            if (this.refused) {
+                //nothing more it says matters while the reply goes out
+                this.in.clear();
+                return;
+            }
+            this.in.flip();
+            if (!this.greeted && !greet()) {
+                return;
+            }
+            while (this.in.remaining() >= 4) {
+                int length = this.in.getInt(this.in.position());
+                if (length < 1 || length > PlaceCodec.MAX_CLIENT_FRAME) {
+                    close();
+                    return;
+                }
+                if (this.in.remaining() < 4 + length) {
+                    if (this.in.capacity() < 4 + length) {
+                        grow(4 + length);
+                        return;
+                    }
+                    break;
+                }
+                this.in.getInt();
+                int type = this.in.get() & 0xFF;
+                int start = this.in.arrayOffset() + this.in.position();
+                this.in.position(this.in.position() + length - 1);
+                PlaceRequest<?> request = this.codec.decode(type, length - 1,
+                        new DataInputStream(new ByteArrayInputStream(this.in.array(), start, length - 1)));
+                if (request != null && !this.server.handle(this, request)) {
+                    //hang up once the client has had the reply saying why
+                    this.refused = true;
+                    this.out.finish();
+                    scheduleWrite();
+                    return;
+                }
+                if (this.closed) {
+                    return;
+                }
+            }
+            this.in.compact();
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    /**
+     * Look at the client's first bytes to see which protocol it speaks.
+     *
+     * @return true if the handshake is done and frames can be read
+     */
+    private boolean greet() {
+        if (this.in.remaining() < 4) {
+            this.in.compact();
+            return false;
+        }
+        if (this.in.getInt(this.in.position()) != PlaceProtocol.MAGIC) {
+            //a serialization client; it needs a thread of its own
+            this.key.cancel();
+            this.loop.handOff(this);
+            return false;
+        }
+        if (this.in.remaining() < 5) {
+            this.in.compact();
+            return false;
+        }
+        this.in.getInt();
+        int version = Math.min(this.in.get() & 0xFF, PlaceProtocol.VERSION);
+        this.codec = new PlaceCodec(this.server.getBoard().getOwners(), version, true);
+        this.pending = ByteBuffer.allocate(5);
+        this.pending.putInt(PlaceProtocol.MAGIC).put((byte) version).flip();
+        scheduleWrite();
+        this.greeted = true;
+        return true;
+    }
+
+    /**
+     * Make the read buffer big enough for a frame, keeping what's in it.
+     *
+     * @param size the size needed
+     */
+    private void grow(int size) {
+        ByteBuffer bigger = ByteBuffer.allocate(size);
+        bigger.put(this.in);
+        this.in = bigger;
+    }
+
+    /**
+     * Write as much of the outgoing queue as the socket will take.  Only
+     * called on the event loop.
+     */
+    void write() {
+        this.writeScheduled.set(false);
+        if (this.closed || !this.key.isValid()) {
+            return;
+        }
+        if (this.out.isClosed()) {
+            close();
+            return;
+        }
+        try {
+            while (true) {
+                if (this.pending != null) {
+                    this.bytesSent += this.channel.write(this.pending);
+                    if (this.pending.hasRemaining()) {
+                        //the socket is full; wait until it drains
+                        this.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                    this.pending = null;
+                }
+                if (!encode()) {
+                    break;
+                }
+            }
+            if (this.out.isFinished()) {
+                close();
+                return;
+            }
+            this.key.interestOps(SelectionKey.OP_READ);
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    /**
+     * Encode queued requests into the pending buffer, up to a batch's worth.
+     *
+     * @return false if there was nothing to encode
+     * @throws IOException if a request can't be encoded
+     */
+    private boolean encode() throws IOException {
+        PlaceRequest<?> request;
+        while (this.frames.size() < WRITE_BATCH && (request = this.out.poll()) != null) {
+            this.codec.encode(request, this.frameOut);
+        }
+        if (this.frames.size() == 0) {
+            return false;
+        }
+        this.frameOut.flush();
+        this.pending = ByteBuffer.wrap(this.frames.toByteArray());
+        this.frames.reset();
+        return true;
+    }
+
+    /**
+     * Move a serialization client onto a {@link ClientThreads}.  Only
+     * called on the event loop, after the key has left the selector.
+     */
+    void startThread() {
+        try {
+            this.channel.configureBlocking(true);
+            byte[] greeting = Arrays.copyOfRange(this.in.array(),
+                    this.in.arrayOffset() + this.in.position(), this.in.arrayOffset() + this.in.limit());
+            this.server.startClient(new ClientThreads(this.channel.socket(), greeting, "", this.server));
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    /**
+     * Close the connection and sign the user out.  From another thread this
+     * only asks the loop to do it.
+     */
+    @Override
+    public void close() {
+        this.out.close();
+        if (Thread.currentThread() != this.loop) {
+            scheduleWrite();
+            return;
+        }
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        this.key.cancel();
+        try {
+            this.channel.close();
+        } catch (IOException ignored) {
+        }
+        this.pending = null;
+        this.server.signOut(this.username, this);
+    }
+}
@@ -0,0 +1,236 @@
+package place.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A server engine that runs every connection on a small, fixed set of
+ * event loop threads instead of a thread per client.  Each loop owns a
+ * {@link Selector} and the non-blocking channels registered with it; the
+ * thread that calls {@link #run()} accepts connections and deals them out
+ * to the loops in turn.
+ *
+ * Requests are carried out on the loop that read them, through the same
+ * {@link PlaceServer#handle} the threaded engine uses.  Sending never
+ * blocks: frames are queued on the connection and its loop writes them
+ * out when the socket can take them.
+ */
+class SelectorEngine implements Closeable {
+    /** The server whose clients these are */
+    private final PlaceServer server;
+    /** Where new connections come from */
+    private final ServerSocketChannel acceptor;
+    /** The event loops */
+    private final EventLoop[] loops;
+    /** Cleared when the engine is closed */
+    private volatile boolean running = true;
+
+    /**
+     * Open the listening socket and create the event loops.
+     *
+     * @param server the server
+     * @param port the port to listen on
+     * @param loops how many event loop threads to run
+     * @throws IOException if the port can't be opened
+     */
+    SelectorEngine(PlaceServer server, int port, int loops) throws IOException {
+        this.server = server;
+        this.acceptor = ServerSocketChannel.open();
+        this.acceptor.bind(new InetSocketAddress(port));
+        this.loops = new EventLoop[loops];
+        for (int i = 0; i < loops; ++i) {
+            this.loops[i] = new EventLoop(i);
+        }
+    }
+
+    /**
+     * Start the event loops and accept connections until closed.
+     */
+    void run() {
+        for (EventLoop loop : this.loops) {
+            loop.start();
+        }
+        int next = 0;
+        while (this.running) {
+            try {
+                SocketChannel channel = this.acceptor.accept();
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                this.loops[next].register(channel);
+                next = (next + 1) % this.loops.length;
+            } catch (ClosedChannelException e) {
+                break;
+            } catch (IOException e) {
+                if (this.running) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * The port the engine is listening on.
+     *
+     * @return the port
+     */
+    int getPort() {
+        return this.acceptor.socket().getLocalPort();
+    }
+
+    /**
+     * Stop accepting and shut down the event loops.
+     *
+     * @throws IOException if the listening socket won't close
+     */
+    @Override
+    public void close() throws IOException {
+        this.running = false;
+        this.acceptor.close();
+        for (EventLoop loop : this.loops) {
+            loop.selector.wakeup();
+        }
+    }
+
+    /**
+     * One event loop thread and the connections it owns.
+     */
+    class EventLoop extends Thread {
+        /** Waits for the loop's channels to be ready */
+        private final Selector selector;
+        /** Channels waiting to be registered with the selector */
+        private final Queue<SocketChannel> registrations = new ConcurrentLinkedQueue<>();
+        /** Connections with frames waiting to be written */
+        private final Queue<SelectorConnection> writers = new ConcurrentLinkedQueue<>();
+        /** Connections to give to a thread once they leave the selector */
+        private final List<SelectorConnection> handoffs = new ArrayList<>();
+
+        /**
+         * Create an event loop.
+         *
+         * @param number which loop this is, for the thread name
+         * @throws IOException if a selector can't be opened
+         */
+        EventLoop(int number) throws IOException {
+            super("place-loop-" + number);
+            this.selector = Selector.open();
+        }
+
+        /**
+         * Give a new channel to this loop.  Safe to call from any thread.
+         *
+         * @param channel a non-blocking channel
+         */
+        void register(SocketChannel channel) {
+            this.registrations.add(channel);
+            this.selector.wakeup();
+        }
+
+        /**
+         * Ask the loop to write a connection's queued frames.  Safe to
+         * call from any thread.
+         *
+         * @param connection the connection
+         */
+        void wantsWrite(SelectorConnection connection) {
+            this.writers.add(connection);
+            this.selector.wakeup();
+        }
+
+        /**
+         * Ask the loop to give a connection to a thread of its own once
+         * the current round of events is over.  Only called on this loop.
+         *
+         * @param connection the connection
+         */
+        void handOff(SelectorConnection connection) {
+            this.handoffs.add(connection);
+        }
+
+        /**
+         * Wait for events and deal with them until the engine closes.
+         */
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    this.selector.select();
+
+                    SocketChannel channel;
+                    while ((channel = this.registrations.poll()) != null) {
+                        SelectionKey key = channel.register(this.selector, SelectionKey.OP_READ);
+                        key.attach(new SelectorConnection(server, this, channel, key));
+                    }
+
+                    SelectorConnection writer;
+                    while ((writer = this.writers.poll()) != null) {
+                        try {
+                            writer.write();
+                        } catch (RuntimeException e) {
+                            failed(writer, e);
+                        }
+                    }
+
+                    Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        SelectorConnection connection = (SelectorConnection) key.attachment();
+                        try {
+                            if (key.isValid() && key.isReadable()) {
+                                connection.read();
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                connection.write();
+                            }
+                        } catch (RuntimeException e) {
+                            failed(connection, e);
+                        }
+                    }
+
+                    if (!this.handoffs.isEmpty()) {
+                        //cancelled keys only leave the selector on the next select
+                        this.selector.selectNow();
+                        for (SelectorConnection connection : this.handoffs) {
+                            connection.startThread();
+                        }
+                        this.handoffs.clear();
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            for (SelectionKey key : new ArrayList<>(this.selector.keys())) {
+                ((SelectorConnection) key.attachment()).close();
+            }
+            try {
+                this.selector.close();
+            } catch (IOException ignored) {
+            }
+        }
+
+        /**
+         * Hang up on a connection that something went wrong with, so the
+         * loop carries on with everyone else's.
+         *
+         * @param connection the connection
+         * @param e what went wrong
+         */
+        private void failed(SelectorConnection connection, RuntimeException e) {
+            System.err.println("Dropping " + connection.getUsername() + " after an error:");
+            e.printStackTrace();
+            connection.close();
+        }
+    }
+}
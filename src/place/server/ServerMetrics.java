@@ -0,0 +1,161 @@
+package place.server;
+
+import place.metrics.Histogram;
+import place.metrics.PrometheusText;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.Collection;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * What the server counts and times while it runs, for
+ * {@link place.metrics.MetricsEndpoint} to show.
+ *
+ * Recording is done on the tile path, so it only adds to counters and
+ * histograms made up front; nothing is allocated or locked.  Everything
+ * else, such as how many users are connected or how much heap is in use,
+ * is looked up when the metrics are asked for.
+ */
+class ServerMetrics {
+    /** Why a tile change was refused */
+    enum Rejection {
+        /** The client hadn't logged in */
+        NOT_LOGGED_IN,
+        /** The user was painting faster than the rate limit */
+        TOO_FAST,
+        /** The tile wasn't on the board */
+        OFF_BOARD
+    }
+
+    /** The bucket bounds latencies are shown with, in nanoseconds */
+    private final static long[] LATENCY_BOUNDS = {
+            1_000, 2_500, 5_000, 10_000, 25_000, 50_000, 100_000, 250_000, 500_000,
+            1_000_000, 2_500_000, 5_000_000, 10_000_000, 25_000_000, 50_000_000,
+            100_000_000, 250_000_000, 500_000_000, 1_000_000_000, 2_500_000_000L
+    };
+    /** Nanoseconds in a second */
+    private final static double SECONDS = 1e9;
+    /** Every reason a change can be refused */
+    private final static Rejection[] REJECTIONS = Rejection.values();
+
+    /** Tile changes accepted */
+    private final LongAdder accepted = new LongAdder();
+    /** Tile changes refused, by why */
+    private final LongAdder[] rejected = new LongAdder[REJECTIONS.length];
+    /** Users who logged in */
+    private final LongAdder logins = new LongAdder();
+    /** Logins refused because the name was taken */
+    private final LongAdder loginFailures = new LongAdder();
+    /** Broadcasts queued for clients, one per client a broadcast went to */
+    private final LongAdder deliveries = new LongAdder();
+    /** From a change arriving until it is on the board, in nanoseconds */
+    private final Histogram applyLatency = new Histogram();
+    /** How long a broadcast takes to queue for every client, in nanoseconds */
+    private final Histogram broadcastLatency = new Histogram();
+
+    /**
+     * Create the metrics, all zero.
+     */
+    ServerMetrics() {
+        for (int i = 0; i < this.rejected.length; ++i) {
+            this.rejected[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Count a tile change that was accepted.
+     */
+    void accepted() {
+        this.accepted.increment();
+    }
+
+    /**
+     * Count a tile change that was refused.
+     *
+     * @param why why it was refused
+     */
+    void rejected(Rejection why) {
+        this.rejected[why.ordinal()].increment();
+    }
+
+    /**
+     * Count a login.
+     *
+     * @param succeeded false if the name was taken
+     */
+    void login(boolean succeeded) {
+        (succeeded ? this.logins : this.loginFailures).increment();
+    }
+
+    /**
+     * Record how long a tile change took to reach the board.
+     *
+     * @param nanos the time from the change arriving, in nanoseconds
+     */
+    void applied(long nanos) {
+        this.applyLatency.record(nanos);
+    }
+
+    /**
+     * Record a broadcast.
+     *
+     * @param nanos how long it took to queue, in nanoseconds
+     * @param clients how many clients it was queued for
+     */
+    void broadcast(long nanos, int clients) {
+        this.broadcastLatency.record(nanos);
+        this.deliveries.add(clients);
+    }
+
+    /**
+     * Write out every metric in Prometheus text format.
+     *
+     * @param clients the logged in users' connections
+     * @return the text
+     */
+    String scrape(Collection<ClientConnection> clients) {
+        PrometheusText text = new PrometheusText();
+        text.counter("place_tiles_accepted_total", "Tile changes accepted", this.accepted.sum());
+        text.family("place_tiles_rejected_total", "counter", "Tile changes refused, by why");
+        for (Rejection why : REJECTIONS) {
+            text.sample("place_tiles_rejected_total", "reason", why.name().toLowerCase(),
+                    this.rejected[why.ordinal()].sum());
+        }
+        text.histogram("place_tile_apply_seconds", "Time from a tile change arriving until it is on the board",
+                this.applyLatency, LATENCY_BOUNDS, SECONDS);
+        text.histogram("place_broadcast_seconds", "Time to queue a broadcast for every client that sees it",
+                this.broadcastLatency, LATENCY_BOUNDS, SECONDS);
+        text.counter("place_broadcast_deliveries_total", "Broadcasts queued, one for each client",
+                this.deliveries.sum());
+
+        text.gauge("place_users_connected", "Users logged in", clients.size());
+        text.counter("place_logins_total", "Users who logged in", this.logins.sum());
+        text.counter("place_login_failures_total", "Logins refused because the name was taken",
+                this.loginFailures.sum());
+        text.family("place_client_queue_depth", "gauge", "Requests waiting to be written to a user");
+        for (ClientConnection client : clients) {
+            text.sample("place_client_queue_depth", "user", client.getUsername(), client.getQueueDepth());
+        }
+        text.family("place_client_sent_bytes_total", "counter", "Bytes written to a user's connection");
+        for (ClientConnection client : clients) {
+            text.sample("place_client_sent_bytes_total", "user", client.getUsername(), client.getBytesSent());
+        }
+
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        text.gauge("jvm_memory_heap_used_bytes", "Heap in use", heap.getUsed());
+        text.gauge("jvm_memory_heap_committed_bytes", "Heap the JVM has from the system", heap.getCommitted());
+        text.gauge("jvm_memory_heap_max_bytes", "The most heap the JVM may have, -1 if unbounded", heap.getMax());
+        text.family("jvm_gc_collections_total", "counter", "Garbage collections, by collector");
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            text.sample("jvm_gc_collections_total", "gc", gc.getName(), gc.getCollectionCount());
+        }
+        text.family("jvm_gc_collection_seconds_total", "counter", "Time spent collecting garbage, by collector");
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            text.sample("jvm_gc_collection_seconds_total", "gc", gc.getName(), gc.getCollectionTime() / 1000.0);
+        }
+        text.gauge("jvm_threads_live", "Live threads", ManagementFactory.getThreadMXBean().getThreadCount());
+        return text.toString();
+    }
+}
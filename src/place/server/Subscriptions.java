@@ -0,0 +1,228 @@
+package place.server;
+
+import place.PlaceBoard;
+import place.PlaceRegion;
+import place.PlaceTile;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Who wants to hear about which parts of the board.
+ *
+ * The board is cut into its square chunks, and each chunk keeps the set of
+ * clients subscribed to it, so a change only costs as much as the number of
+ * clients that can see it.  Clients that never subscribed hear about the
+ * whole board and are kept apart from the chunks.
+ *
+ * Subscriptions change with every one of the server's tile locks held.
+ * Broadcasts read them without the locks, but every change they carry was
+ * made under one of them afterwards, so they see every chunk set made
+ * before it.
+ */
+class Subscriptions {
+    /** The board, which numbers the chunks */
+    private final PlaceBoard board;
+    /** How many chunks across the board is */
+    private final int side;
+    /** The logged in clients subscribed to each chunk, made when first needed */
+    private final Set<ClientConnection>[] chunks;
+    /** The logged in clients that hear about everything */
+    private final Set<ClientConnection> everywhere = ConcurrentHashMap.newKeySet();
+    /** The chunks of each client that has subscribed, logged in or not */
+    private final Map<ClientConnection, BitSet> subscribed = new ConcurrentHashMap<>();
+
+    /**
+     * Create an index with no clients.
+     *
+     * @param board the board
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    Subscriptions(PlaceBoard board) {
+        this.board = board;
+        this.side = (board.DIM + PlaceBoard.CHUNK - 1) / PlaceBoard.CHUNK;
+        this.chunks = new Set[this.side * this.side];
+    }
+
+    /**
+     * Start sending changes to a client that has logged in.
+     *
+     * @param client the client
+     */
+    void join(ClientConnection client) {
+        BitSet chunks = this.subscribed.get(client);
+        if (chunks == null) {
+            this.everywhere.add(client);
+        } else {
+            add(client, chunks);
+        }
+    }
+
+    /**
+     * Stop sending changes to a client and forget its subscription.
+     *
+     * @param client the client
+     */
+    void leave(ClientConnection client) {
+        this.everywhere.remove(client);
+        BitSet chunks = this.subscribed.remove(client);
+        if (chunks != null) {
+            remove(client, chunks);
+        }
+    }
+
+    /**
+     * Replace what a client is subscribed to.
+     *
+     * @param client the client
+     * @param regions the regions it wants
+     * @param joined whether the client has logged in
+     * @return the chunks the client didn't have before and needs the tiles
+     *         of; a client that had the whole board needs none
+     */
+    BitSet subscribe(ClientConnection client, PlaceRegion[] regions, boolean joined) {
+        BitSet chunks = chunksOf(regions);
+        BitSet before = this.subscribed.put(client, chunks);
+        if (!joined) {
+            return new BitSet();
+        }
+        boolean hadEverything = this.everywhere.remove(client);
+        BitSet dropped = before == null ? new BitSet() : (BitSet) before.clone();
+        dropped.andNot(chunks);
+        remove(client, dropped);
+        BitSet added = (BitSet) chunks.clone();
+        if (before != null) {
+            added.andNot(before);
+        }
+        add(client, added);
+        return hadEverything ? new BitSet() : added;
+    }
+
+    /**
+     * Get the chunks a client is subscribed to.
+     *
+     * @param client the client
+     * @return the chunks, or null if it hears about the whole board
+     */
+    BitSet get(ClientConnection client) {
+        return this.subscribed.get(client);
+    }
+
+    /**
+     * Get the logged in clients that hear about the whole board.
+     *
+     * @return the clients
+     */
+    Set<ClientConnection> everywhere() {
+        return this.everywhere;
+    }
+
+    /**
+     * Work out which of some changes each subscribed client should get.
+     * The clients that hear about everything are left out.
+     *
+     * @param tiles the changes
+     * @return the changes for each client that wants any of them
+     */
+    Map<ClientConnection, List<PlaceTile>> route(PlaceTile[] tiles) {
+        //sort the changes into chunks first, so each subscriber of a busy
+        //chunk is looked at once
+        Map<Integer, List<PlaceTile>> byChunk = new HashMap<>();
+        for (PlaceTile tile : tiles) {
+            int chunk = this.board.chunk(tile.getRow(), tile.getCol());
+            if (this.chunks[chunk] != null && !this.chunks[chunk].isEmpty()) {
+                byChunk.computeIfAbsent(chunk, c -> new ArrayList<>()).add(tile);
+            }
+        }
+        Map<ClientConnection, List<PlaceTile>> routes = new HashMap<>();
+        byChunk.forEach((chunk, changes) -> {
+            for (ClientConnection client : this.chunks[chunk]) {
+                routes.computeIfAbsent(client, c -> new ArrayList<>()).addAll(changes);
+            }
+        });
+        return routes;
+    }
+
+    /**
+     * Tells whether a client hears about a tile.
+     *
+     * @param chunks the client's chunks, or null for the whole board
+     * @param tile the tile
+     * @return true if it does
+     */
+    boolean covers(BitSet chunks, PlaceTile tile) {
+        return chunks == null || chunks.get(this.board.chunk(tile.getRow(), tile.getCol()));
+    }
+
+    /**
+     * Get the part of the board some chunks cover.
+     *
+     * @param chunks the chunks
+     * @return a region for each chunk, cut down to the board
+     */
+    PlaceRegion[] regions(BitSet chunks) {
+        PlaceRegion[] regions = new PlaceRegion[chunks.cardinality()];
+        int i = 0;
+        for (int chunk = chunks.nextSetBit(0); chunk >= 0; chunk = chunks.nextSetBit(chunk + 1)) {
+            regions[i++] = this.board.getChunk(chunk);
+        }
+        return regions;
+    }
+
+    /**
+     * Get the chunks that regions touch.
+     *
+     * @param regions the regions
+     * @return the chunks
+     */
+    private BitSet chunksOf(PlaceRegion[] regions) {
+        BitSet chunks = new BitSet(this.chunks.length);
+        for (PlaceRegion region : regions) {
+            PlaceRegion part = region.clip(this.board.DIM);
+            if (part.isEmpty()) {
+                continue;
+            }
+            int first = this.board.chunk(part.getRow(), part.getCol());
+            int last = this.board.chunk(part.getRow() + part.getHeight() - 1, part.getCol() + part.getWidth() - 1);
+            int width = last % this.side - first % this.side + 1;
+            for (int row = first; row <= last; row += this.side) {
+                chunks.set(row, row + width);
+            }
+        }
+        return chunks;
+    }
+
+    /**
+     * Add a client to some chunks.
+     *
+     * @param client the client
+     * @param chunks the chunks
+     */
+    private void add(ClientConnection client, BitSet chunks) {
+        for (int chunk = chunks.nextSetBit(0); chunk >= 0; chunk = chunks.nextSetBit(chunk + 1)) {
+            if (this.chunks[chunk] == null) {
+                this.chunks[chunk] = ConcurrentHashMap.newKeySet();
+            }
+            this.chunks[chunk].add(client);
+        }
+    }
+
+    /**
+     * Take a client out of some chunks.
+     *
+     * @param client the client
+     * @param chunks the chunks
+     */
+    private void remove(ClientConnection client, BitSet chunks) {
+        for (int chunk = chunks.nextSetBit(0); chunk >= 0; chunk = chunks.nextSetBit(chunk + 1)) {
+            if (this.chunks[chunk] != null) {
+                this.chunks[chunk].remove(client);
+            }
+        }
+    }
+}
@@ -0,0 +1,594 @@
+package place.server;
+
+import place.PlaceBoard;
+import place.PlaceException;
+import place.PlaceOwners;
+import place.PlaceTile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * An append only log of tile changes, so the board survives a restart.
+ *
+ * The log is a directory of segment files, <code>tiles-NNNNNNNN.log</code>,
+ * each starting with a 12 byte header (magic, version, dimension) followed
+ * by fixed size 24 byte records:
+ *
+ * <pre>
+ * time (8)  position (4)  owner id (4)  color (1)  unused (3)  CRC-32 (4)
+ * </pre>
+ *
+ * where the position is <code>row * DIM + col</code> and the checksum
+ * covers the 20 bytes before it.  A segment is closed once it reaches
+ * {@link #SEGMENT_BYTES} and a new one started.  Owner ids are the board's;
+ * their names are appended to <code>owners.log</code>, in id order,
+ * before any record that uses them reaches the disk.
+ *
+ * Older segments are deleted once a {@link BoardSnapshot} covers them;
+ * see {@link #rollOver}.
+ *
+ * Changes are appended to a buffer and written by a thread of its own.
+ * Whatever piles up while one write is being forced to disk goes out with
+ * the next, so a busy server forces the log a few hundred times a second
+ * however many tiles change.
+ */
+class TileLog implements Closeable {
+    /** "PLOG", the start of every segment */
+    private final static int MAGIC = 0x504C4F47;
+    /** The segment format version */
+    private final static int VERSION = 1;
+    /** The size of a segment header */
+    private final static int HEADER = 12;
+    /** The size of a record */
+    final static int RECORD = 24;
+    /** Segments are rolled over once they reach this size */
+    final static long SEGMENT_BYTES = 64L << 20;
+    /** The size of the buffer records wait in */
+    private final static int BUFFER = RECORD * 8192;
+
+    /** The directory the log lives in */
+    private final Path dir;
+    /** The board being logged */
+    private final PlaceBoard board;
+    /** Guards the buffers and counters */
+    private final ReentrantLock lock = new ReentrantLock();
+    /** Signalled when there is something to write or the log closes */
+    private final Condition work = this.lock.newCondition();
+    /** Signalled when a write has reached the disk */
+    private final Condition written = this.lock.newCondition();
+    /** Records waiting to be written */
+    private ByteBuffer filling = ByteBuffer.allocate(BUFFER);
+    /** Records being written; only the writer touches it */
+    private ByteBuffer writing = ByteBuffer.allocate(BUFFER);
+    /** Owner names waiting to be written */
+    private ByteArrayOutputStream names = new ByteArrayOutputStream();
+    /** The owner ids whose names are logged or waiting to be */
+    private int ownersLogged;
+    /** Records appended so far */
+    private long appended;
+    /** Records known to be on disk */
+    private long durable;
+    /** Set once the log is closing */
+    private boolean closed;
+    /** Set if the disk has failed us; changes are no longer logged */
+    private boolean failed;
+    /** The number of changes to leave behind when rolling over, or -1 */
+    private long rollAt = -1;
+    /** The segment the last roll over started */
+    private int rolledTo;
+    /** Computes record checksums on the appending side */
+    private final CRC32 crc = new CRC32();
+    /** The segment being written */
+    private FileChannel segment;
+    /** The number of the segment being written */
+    private int segmentNumber;
+    /** The size of the segment being written */
+    private long segmentSize;
+    /** The owner names file */
+    private FileChannel owners;
+    /** Writes the buffers out */
+    private final Thread writer;
+
+    /**
+     * Open the log in a directory, loading the latest snapshot and replaying
+     * the segments after it into the board, and start a new segment for the
+     * changes to come.
+     *
+     * @param dir the directory, created if need be
+     * @param board an empty board to rebuild
+     * @return the log
+     * @throws PlaceException if the log doesn't belong to this board
+     * @throws IOException if the log can't be read or written
+     */
+    static TileLog open(Path dir, PlaceBoard board) throws PlaceException, IOException {
+        Files.createDirectories(dir);
+        TileLog log = new TileLog(dir, board);
+        log.replay();
+        return log;
+    }
+
+    /**
+     * Set up the log's state; {@link #open} does the rest.
+     *
+     * @param dir the log directory
+     * @param board the board being logged
+     */
+    private TileLog(Path dir, PlaceBoard board) {
+        this.dir = dir;
+        this.board = board;
+        this.writer = new Thread(this::write, "place-log");
+        this.writer.setDaemon(true);
+    }
+
+    /**
+     * Rebuild the board from the owners file and the segments, then start
+     * writing.
+     *
+     * @throws PlaceException if the log doesn't belong to this board
+     * @throws IOException if the log can't be read or written
+     */
+    private void replay() throws PlaceException, IOException {
+        long start = System.nanoTime();
+        readOwners();
+        int first = BoardSnapshot.load(this.dir, this.board);
+        List<Path> segments = segments();
+        //a snapshot may have been saved without its old segments being deleted
+        segments.removeIf(segment -> segmentNumber(segment) < first);
+        long records = 0;
+        for (int i = 0; i < segments.size(); ++i) {
+            records += readSegment(segments.get(i), i == segments.size() - 1);
+        }
+        if (first > 0 || !segments.isEmpty()) {
+            System.out.println("Restored the board from " + (first > 0 ? "a snapshot and " : "") + records +
+                    " logged tile changes in " + (System.nanoTime() - start) / 1_000_000 + " ms.");
+        }
+
+        this.segmentNumber = segments.isEmpty() ? Math.max(first - 1, 0) :
+                segmentNumber(segments.get(segments.size() - 1));
+        this.owners = FileChannel.open(this.dir.resolve("owners.log"),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        this.ownersLogged = this.board.getOwners().size();
+        startSegment();
+        this.writer.start();
+    }
+
+    /**
+     * Read the owner names back into the board's dictionary.  A name cut
+     * short by a crash is cut off the file.
+     *
+     * @throws IOException if the file can't be read
+     */
+    private void readOwners() throws IOException {
+        Path file = this.dir.resolve("owners.log");
+        if (!Files.exists(file)) {
+            return;
+        }
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(file));
+        PlaceOwners dictionary = this.board.getOwners();
+        while (in.remaining() >= 4) {
+            int length = in.getInt(in.position());
+            if (length < 0 || length > in.remaining() - 4) {
+                break;
+            }
+            in.getInt();
+            byte[] name = new byte[length];
+            in.get(name);
+            dictionary.intern(new String(name, StandardCharsets.UTF_8));
+        }
+        if (in.hasRemaining()) {
+            truncate(file, in.position());
+        }
+    }
+
+    /**
+     * Replay one segment into the board.
+     *
+     * @param file the segment
+     * @param last whether it is the newest segment, where a crash may
+     *             have left a record half written
+     * @return the number of records replayed
+     * @throws PlaceException if the segment doesn't belong to this board
+     * @throws IOException if the segment can't be read
+     */
+    private long readSegment(Path file, boolean last) throws PlaceException, IOException {
+        CRC32 check = new CRC32();
+        int ownerCount = this.board.getOwners().size();
+        long records = 0;
+        long position = HEADER;
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+            while (header.hasRemaining() && in.read(header) >= 0) {
+            }
+            header.flip();
+            if (header.remaining() < HEADER || header.getInt() != MAGIC) {
+                if (last) {
+                    //the crash came before the header was written
+                    Files.delete(file);
+                    return 0;
+                }
+                throw new PlaceException(file + " is not a tile log");
+            }
+            if (header.getInt() != VERSION) {
+                throw new PlaceException(file + " is from another version of the server");
+            }
+            int dim = header.getInt();
+            if (dim != this.board.DIM) {
+                throw new PlaceException(file + " was written for a " + dim + "x" + dim + " board");
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER);
+            boolean more = true;
+            records:
+            while (more) {
+                while (buffer.hasRemaining() && more) {
+                    more = in.read(buffer) >= 0;
+                }
+                buffer.flip();
+                while (buffer.remaining() >= RECORD) {
+                    int start = buffer.position();
+                    check.reset();
+                    check.update(buffer.array(), start, RECORD - 4);
+                    long time = buffer.getLong();
+                    int cell = buffer.getInt();
+                    int owner = buffer.getInt();
+                    int color = buffer.get();
+                    buffer.position(start + RECORD - 4);
+                    if (buffer.getInt() != (int) check.getValue() || cell < 0 ||
+                            cell >= dim * dim || owner < 0 || owner >= ownerCount || color < 0 || color > 15) {
+                        break records;
+                    }
+                    this.board.setTile(cell / dim, cell % dim, color, owner, time);
+                    ++records;
+                    position += RECORD;
+                }
+                buffer.compact();
+            }
+        }
+        if (position < Files.size(file)) {
+            if (!last) {
+                throw new PlaceException(file + " is damaged at byte " + position);
+            }
+            System.err.println("Dropping a damaged tail from " + file + " at byte " + position + ".");
+            truncate(file, position);
+        }
+        return records;
+    }
+
+    /**
+     * Log a tile change.  It is only buffered; use {@link #awaitWritten} to
+     * wait for it to reach the disk.
+     *
+     * @param tile the tile, with its time set
+     * @param ownerId the owner's id in the board's dictionary
+     * @return the change's number in the log
+     */
+    long append(PlaceTile tile, int ownerId) {
+        this.lock.lock();
+        try {
+            while (this.filling.remaining() < RECORD && !this.failed && !this.closed) {
+                //the writer is behind; wait for it rather than grow
+                this.work.signal();
+                this.written.awaitUninterruptibly();
+            }
+            if (this.failed || this.closed) {
+                return this.appended;
+            }
+            while (this.ownersLogged <= ownerId) {
+                byte[] name = this.board.getOwners().getName(this.ownersLogged++).getBytes(StandardCharsets.UTF_8);
+                DataOutputStream out = new DataOutputStream(this.names);
+                try {
+                    out.writeInt(name.length);
+                    out.write(name);
+                } catch (IOException impossible) {
+                    throw new IllegalStateException(impossible);
+                }
+            }
+
+            ByteBuffer buffer = this.filling;
+            int start = buffer.position();
+            buffer.putLong(tile.getTime());
+            buffer.putInt(tile.getRow() * this.board.DIM + tile.getCol());
+            buffer.putInt(ownerId);
+            buffer.put((byte) tile.getColor().getNumber());
+            buffer.put((byte) 0).put((byte) 0).put((byte) 0);
+            this.crc.reset();
+            this.crc.update(buffer.array(), start, RECORD - 4);
+            buffer.putInt((int) this.crc.getValue());
+
+            this.work.signal();
+            return ++this.appended;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Wait until a change is on disk.
+     *
+     * @param record the change's number, from {@link #append}
+     */
+    void awaitWritten(long record) {
+        this.lock.lock();
+        try {
+            while (this.durable < record && !this.failed && !this.closed) {
+                this.written.awaitUninterruptibly();
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Write the buffers out until the log is closed.
+     */
+    private void write() {
+        //records in earlier writes; only the writer uses it
+        long before = 0;
+        while (true) {
+            byte[] newNames;
+            long target;
+            long roll;
+            this.lock.lock();
+            try {
+                while (this.filling.position() == 0 && this.names.size() == 0 && this.rollAt < 0 &&
+                        !this.closed) {
+                    this.work.awaitUninterruptibly();
+                }
+                if (this.filling.position() == 0 && this.names.size() == 0 && this.rollAt < 0) {
+                    return;
+                }
+                ByteBuffer full = this.filling;
+                this.filling = this.writing;
+                this.writing = full;
+                newNames = this.names.toByteArray();
+                this.names.reset();
+                target = this.appended;
+                roll = this.rollAt;
+            } finally {
+                this.lock.unlock();
+            }
+
+            int rolledTo = 0;
+            try {
+                if (newNames.length > 0) {
+                    //names go first, so no record on disk refers to a missing one
+                    writeFully(this.owners, ByteBuffer.wrap(newNames));
+                    this.owners.force(false);
+                }
+                this.writing.flip();
+                if (roll >= 0) {
+                    //the records appended before the roll was asked for stay behind
+                    ByteBuffer head = this.writing.duplicate();
+                    head.limit((int) (roll - before) * RECORD);
+                    writeRecords(head);
+                    nextSegment();
+                    rolledTo = this.segmentNumber;
+                    this.writing.position(head.limit());
+                }
+                writeRecords(this.writing);
+                this.writing.clear();
+                this.segment.force(false);
+            } catch (IOException e) {
+                System.err.println("The tile log can't be written; changes are no longer being saved.");
+                e.printStackTrace();
+                this.lock.lock();
+                try {
+                    this.failed = true;
+                    this.written.signalAll();
+                } finally {
+                    this.lock.unlock();
+                }
+                return;
+            }
+            before = target;
+
+            this.lock.lock();
+            try {
+                this.durable = target;
+                if (rolledTo > 0) {
+                    this.rollAt = -1;
+                    this.rolledTo = rolledTo;
+                }
+                this.written.signalAll();
+            } finally {
+                this.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Write records to the current segment, starting new segments as they
+     * fill up.  Only the writer calls this.
+     *
+     * @param records the records
+     * @throws IOException if the write fails
+     */
+    private void writeRecords(ByteBuffer records) throws IOException {
+        while (records.hasRemaining()) {
+            if (this.segmentSize >= SEGMENT_BYTES) {
+                nextSegment();
+            }
+            ByteBuffer part = records.duplicate();
+            long room = (SEGMENT_BYTES - this.segmentSize + RECORD - 1) / RECORD * RECORD;
+            part.limit((int) Math.min(part.limit(), part.position() + room));
+            this.segmentSize += writeFully(this.segment, part);
+            records.position(part.limit());
+        }
+    }
+
+    /**
+     * Finish the current segment and start the next.  Only the writer
+     * calls this once the log is running.
+     *
+     * @throws IOException if the segments can't be closed or opened
+     */
+    private void nextSegment() throws IOException {
+        this.segment.force(false);
+        this.segment.close();
+        startSegment();
+    }
+
+    /**
+     * Start a new segment, so that every change logged so far is in older
+     * segments and every later change is in the new one or after.
+     *
+     * @return the new segment's number
+     * @throws IOException if the log isn't being written
+     */
+    int rollOver() throws IOException {
+        this.lock.lock();
+        try {
+            this.rollAt = this.appended;
+            this.rolledTo = 0;
+            this.work.signal();
+            while (this.rolledTo == 0 && !this.failed && !this.closed) {
+                this.written.awaitUninterruptibly();
+            }
+            if (this.rolledTo == 0) {
+                throw new IOException("The tile log is not being written");
+            }
+            return this.rolledTo;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Wait until every change logged so far is on disk.
+     */
+    void sync() {
+        long record;
+        this.lock.lock();
+        try {
+            record = this.appended;
+        } finally {
+            this.lock.unlock();
+        }
+        awaitWritten(record);
+    }
+
+    /**
+     * Delete the segments a snapshot has made unnecessary.
+     *
+     * @param segment the first segment to keep
+     * @throws IOException if the directory can't be read
+     */
+    void deleteSegmentsBefore(int segment) throws IOException {
+        for (Path file : segments()) {
+            if (segmentNumber(file) < segment) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    /**
+     * Start the next segment file and write its header.
+     *
+     * @throws IOException if the file can't be created
+     */
+    private void startSegment() throws IOException {
+        ++this.segmentNumber;
+        this.segment = FileChannel.open(this.dir.resolve(String.format("tiles-%08d.log", this.segmentNumber)),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        header.putInt(MAGIC).putInt(VERSION).putInt(this.board.DIM);
+        header.flip();
+        this.segmentSize = writeFully(this.segment, header);
+    }
+
+    /**
+     * The segment files in the directory, oldest first.
+     *
+     * @return the segments
+     * @throws IOException if the directory can't be read
+     */
+    private List<Path> segments() throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(this.dir, "tiles-*.log")) {
+            for (Path file : files) {
+                segments.add(file);
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    /**
+     * The number in a segment's file name.
+     *
+     * @param segment the segment
+     * @return its number
+     */
+    private static int segmentNumber(Path segment) {
+        String name = segment.getFileName().toString();
+        return Integer.parseInt(name.substring("tiles-".length(), name.length() - ".log".length()));
+    }
+
+    /**
+     * Write all of a buffer to a channel.
+     *
+     * @param channel the channel
+     * @param buffer the bytes
+     * @return how many bytes were written
+     * @throws IOException if the write fails
+     */
+    private static int writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        int total = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        return total;
+    }
+
+    /**
+     * Cut a file short.
+     *
+     * @param file the file
+     * @param size the size to leave it
+     * @throws IOException if it can't be truncated
+     */
+    private static void truncate(Path file, long size) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(size);
+        }
+    }
+
+    /**
+     * Write out whatever is buffered and close the files.
+     *
+     * @throws IOException if the files can't be closed
+     */
+    @Override
+    public void close() throws IOException {
+        this.lock.lock();
+        try {
+            this.closed = true;
+            this.work.signalAll();
+            this.written.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+        try {
+            this.writer.join();
+        } catch (InterruptedException ignored) {
+        }
+        this.segment.close();
+        this.owners.close();
+    }
+}